@@ -0,0 +1,144 @@
+package game;
+
+import java.awt.geom.AffineTransform;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import geom.Polygon;
+import geom.RayTrace;
+import graphics.Renderer;
+
+// A frame's trace tree flattened into the order it's drawn in.
+//
+// compile() walks the tree once, giving every node its full transform from the space it was traced
+// in to the screen, and emitting an entry for each layer the node has something on. Entries are
+// then ordered by layer and, within a layer, grouped by renderer. Visible scopes don't overlap, so
+// reordering a layer's entries changes nothing on screen.
+//
+// Everything is reused from frame to frame; only the render thread may use a DrawList.
+final class DrawList {
+  enum Layer {
+    BACKGROUND,
+    PLAYER,
+  }
+
+  private static final Layer[] LAYERS = Layer.values();
+
+  private int size = 0;
+  private Layer[] layers = new Layer[0];
+  private RayTrace[] traces = new RayTrace[0];
+  // Indices into `transforms`; nodes with entries on several layers share a transform.
+  private int[] transformIndices = new int[0];
+  private int[] rendererIds = new int[0];
+  // Draw order, each packed as layer << 48 | renderer id << 32 | entry.
+  private long[] order = new long[0];
+
+  private int numTransforms = 0;
+  private AffineTransform[] transforms = new AffineTransform[0];
+
+  private final List<Renderer> renderers = new ArrayList<>();
+
+  // Flattens `root`, which is seen through `view`, for drawing `frame`.
+  void compile(RayTrace root, AffineTransform view, FrameSnapshot frame) {
+    size = 0;
+    numTransforms = 0;
+    renderers.clear();
+    compile(root, newTransform(view), frame);
+
+    for (int i = 0; i < size; i++) {
+      order[i] = (long) layers[i].ordinal() << 48 | (long) rendererIds[i] << 32 | i;
+    }
+    Arrays.sort(order, 0, size);
+  }
+
+  private void compile(RayTrace trace, int transformIndex, FrameSnapshot frame) {
+    add(Layer.BACKGROUND, trace, transformIndex);
+    if (trace.space() == frame.space()
+        && trace.scope().toShape().contains(frame.position().x(), frame.position().y())) {
+      add(Layer.PLAYER, trace, transformIndex);
+    }
+
+    for (RayTrace.RecursiveRayTrace recursiveTrace : trace.recursiveRayTraces()) {
+      int recursiveIndex = newTransform(transforms[transformIndex]);
+      recursiveTrace.portalLink().concatenateInvTransform(transforms[recursiveIndex]);
+      compile(recursiveTrace.rayTrace(), recursiveIndex, frame);
+    }
+  }
+
+  private int newTransform(AffineTransform tx) {
+    if (numTransforms == transforms.length) {
+      transforms = Arrays.copyOf(transforms, Math.max(16, 2 * transforms.length));
+    }
+    if (transforms[numTransforms] == null) {
+      transforms[numTransforms] = new AffineTransform(tx);
+    } else {
+      transforms[numTransforms].setTransform(tx);
+    }
+    return numTransforms++;
+  }
+
+  private void add(Layer layer, RayTrace trace, int transformIndex) {
+    if (size == layers.length) {
+      int capacity = Math.max(16, 2 * layers.length);
+      layers = Arrays.copyOf(layers, capacity);
+      traces = Arrays.copyOf(traces, capacity);
+      transformIndices = Arrays.copyOf(transformIndices, capacity);
+      rendererIds = Arrays.copyOf(rendererIds, capacity);
+      order = Arrays.copyOf(order, capacity);
+    }
+    layers[size] = layer;
+    traces[size] = trace;
+    transformIndices[size] = transformIndex;
+    rendererIds[size] = rendererId(trace.space().renderer());
+    size++;
+  }
+
+  // Renderers are compared by identity; a frame only ever sees a handful.
+  private int rendererId(Renderer renderer) {
+    for (int i = 0; i < renderers.size(); i++) {
+      if (renderers.get(i) == renderer) {
+        return i;
+      }
+    }
+    renderers.add(renderer);
+    return renderers.size() - 1;
+  }
+
+  int size() {
+    return size;
+  }
+
+  // The rest take a position in draw order, from 0 to size().
+
+  Layer layer(int i) {
+    return LAYERS[(int) (order[i] >>> 48)];
+  }
+
+  // From the entry's space to the screen. Not to be modified.
+  AffineTransform transform(int i) {
+    return transforms[transformIndices[entry(i)]];
+  }
+
+  // The region the entry is visible in, in its space.
+  Polygon clip(int i) {
+    return traces[entry(i)].scope();
+  }
+
+  Renderer renderer(int i) {
+    return traces[entry(i)].space().renderer();
+  }
+
+  // The end of the run of entries from `i` on with the same layer and renderer.
+  int batchEnd(int i) {
+    long batch = order[i] >>> 32;
+    int end = i + 1;
+    while (end < size && order[end] >>> 32 == batch) {
+      end++;
+    }
+    return end;
+  }
+
+  private int entry(int i) {
+    return (int) order[i];
+  }
+}
@@ -0,0 +1,297 @@
+package game;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import com.google.common.base.Preconditions;
+import geom.Collision;
+import geom.EnclosedRaycastSpace;
+import geom.Point;
+import geom.Vector;
+
+// Moving things other than the player, such as NPCs and projectiles, kept by the space they're in.
+//
+// Each space's entities are stored as parallel arrays of primitives, so a tick moves them in one
+// pass, and different spaces can be moved on different threads: moving a space's entities only
+// reads geometry and only writes that space's arrays. Entities that end a tick in another space are
+// handed over to it afterwards, on the ticking thread.
+//
+// Entities are circles, all the same size. They bounce off walls, and go through portals as the
+// player does, turning their velocity with the portal. An entity keeps its id for as long as it's
+// in the store. Not thread-safe.
+public final class EntityStore {
+  // How far entities are kept from walls they bounce off, and how far past a portal's destination
+  // segment they come out; see Player.
+  private static final double SKIN = 1e-3;
+  private static final double NUDGE = 1e-3;
+  // Bounds the bounces and crossings in one tick.
+  private static final int MAX_MOVE_STEPS = 8;
+
+  private static final class Group {
+    private final EnclosedRaycastSpace space;
+    private int size = 0;
+    private int[] ids = new int[0];
+    private double[] x = new double[0];
+    private double[] y = new double[0];
+    // Per tick.
+    private double[] vx = new double[0];
+    private double[] vy = new double[0];
+    // Set by move() for entities that ended the tick in another space, and cleared on handover.
+    private EnclosedRaycastSpace[] leavingFor = new EnclosedRaycastSpace[0];
+    private boolean anyLeaving = false;
+
+    private Group(EnclosedRaycastSpace space) {
+      this.space = space;
+    }
+
+    private int add(int id, double x, double y, double vx, double vy) {
+      if (size == ids.length) {
+        int capacity = Math.max(16, 2 * ids.length);
+        ids = Arrays.copyOf(ids, capacity);
+        this.x = Arrays.copyOf(this.x, capacity);
+        this.y = Arrays.copyOf(this.y, capacity);
+        this.vx = Arrays.copyOf(this.vx, capacity);
+        this.vy = Arrays.copyOf(this.vy, capacity);
+        leavingFor = Arrays.copyOf(leavingFor, capacity);
+      }
+      ids[size] = id;
+      this.x[size] = x;
+      this.y[size] = y;
+      this.vx[size] = vx;
+      this.vy[size] = vy;
+      leavingFor[size] = null;
+      return size++;
+    }
+  }
+
+  private final double radius;
+  private final Map<EnclosedRaycastSpace, Group> groupsBySpace = new HashMap<>();
+  // In order of creation, so ticks are the same from run to run.
+  private final List<Group> groups = new ArrayList<>();
+
+  // Where each id is, or null once removed.
+  private Group[] groupOf = new Group[0];
+  private int[] indexOf = new int[0];
+  private int nextId = 0;
+  private int size = 0;
+
+  public EntityStore(double radius) {
+    Preconditions.checkArgument(radius > 0, "radius: %s", radius);
+    this.radius = radius;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  // Adds an entity at `position` in `space`, moving by `velocity` every tick, and returns its id.
+  public int add(EnclosedRaycastSpace space, Point position, Vector velocity) {
+    Group group = group(space);
+    int id = nextId++;
+    if (id == groupOf.length) {
+      groupOf = Arrays.copyOf(groupOf, Math.max(16, 2 * groupOf.length));
+      indexOf = Arrays.copyOf(indexOf, groupOf.length);
+    }
+    groupOf[id] = group;
+    indexOf[id] = group.add(id, position.x(), position.y(), velocity.dx(), velocity.dy());
+    size++;
+    return id;
+  }
+
+  public void remove(int id) {
+    Group group = group(id);
+    removeAt(group, indexOf[id]);
+    groupOf[id] = null;
+    size--;
+  }
+
+  // Removes the entity at `index`, moving the group's last entity into its place.
+  private void removeAt(Group group, int index) {
+    int last = --group.size;
+    if (index != last) {
+      group.ids[index] = group.ids[last];
+      group.x[index] = group.x[last];
+      group.y[index] = group.y[last];
+      group.vx[index] = group.vx[last];
+      group.vy[index] = group.vy[last];
+      group.leavingFor[index] = group.leavingFor[last];
+      indexOf[group.ids[index]] = index;
+    }
+    group.leavingFor[last] = null;
+  }
+
+  public boolean contains(int id) {
+    return id >= 0 && id < nextId && groupOf[id] != null;
+  }
+
+  public EnclosedRaycastSpace space(int id) {
+    return group(id).space;
+  }
+
+  public Point position(int id) {
+    Group group = group(id);
+    return Point.create(group.x[indexOf[id]], group.y[indexOf[id]]);
+  }
+
+  public Vector velocity(int id) {
+    Group group = group(id);
+    return Vector.create(group.vx[indexOf[id]], group.vy[indexOf[id]]);
+  }
+
+  private Group group(EnclosedRaycastSpace space) {
+    Group group = groupsBySpace.get(space);
+    if (group == null) {
+      group = new Group(space);
+      groupsBySpace.put(space, group);
+      groups.add(group);
+    }
+    return group;
+  }
+
+  private Group group(int id) {
+    Preconditions.checkArgument(contains(id), "No entity %s", id);
+    return groupOf[id];
+  }
+
+  // Moves every entity by its velocity.
+  public void tick() {
+    tick(null);
+  }
+
+  // Moves every entity by its velocity, a space at a time in parallel on `pool` if not null.
+  public void tick(ForkJoinPool pool) {
+    if (pool == null) {
+      groups.forEach(this::move);
+    } else {
+      List<ForkJoinTask<?>> tasks = new ArrayList<>(groups.size());
+      for (Group group : groups) {
+        if (group.size > 0) {
+          tasks.add(ForkJoinTask.adapt(() -> move(group)));
+        }
+      }
+      pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+    }
+
+    // Handovers add to the end of other groups, which are only ever entities that stay put.
+    for (int g = 0; g < groups.size(); g++) {
+      Group group = groups.get(g);
+      if (!group.anyLeaving) {
+        continue;
+      }
+      group.anyLeaving = false;
+      for (int i = group.size - 1; i >= 0; i--) {
+        EnclosedRaycastSpace destSpace = group.leavingFor[i];
+        if (destSpace == null) {
+          continue;
+        }
+
+        int id = group.ids[i];
+        double x = group.x[i];
+        double y = group.y[i];
+        double vx = group.vx[i];
+        double vy = group.vy[i];
+        removeAt(group, i);
+        Group dest = group(destSpace);
+        groupOf[id] = dest;
+        indexOf[id] = dest.add(id, x, y, vx, vy);
+      }
+    }
+  }
+
+  // Moves one space's entities, leaving those that end up elsewhere marked in `leavingFor`.
+  //
+  // Works on each entity's coordinates as doubles, so the only objects made per step are the
+  // arguments to sweepCircle() and what it returns.
+  private void move(Group group) {
+    double[] point = new double[2];
+    for (int i = 0; i < group.size; i++) {
+      EnclosedRaycastSpace space = group.space;
+      double x = group.x[i];
+      double y = group.y[i];
+      double vx = group.vx[i];
+      double vy = group.vy[i];
+      // What's left of this tick's movement.
+      double rx = vx;
+      double ry = vy;
+      for (int step = 0; step < MAX_MOVE_STEPS && rx * rx + ry * ry > 0; step++) {
+        Optional<Collision> collisionOpt =
+            space.sweepCircle(Point.create(x, y), Vector.create(rx, ry), radius);
+        if (!collisionOpt.isPresent()) {
+          x += rx;
+          y += ry;
+          break;
+        }
+
+        Collision collision = collisionOpt.get();
+        double t = collision.time();
+        double cx = x + rx * t;
+        double cy = y + ry * t;
+        if (collision.isPortal()) {
+          EnclosedRaycastSpace.PortalLink portalLink = collision.segmentRef().portalLink();
+          double cos = portalLink.rotation().cos();
+          double sin = portalLink.rotation().sin();
+          space = portalLink.destSpace();
+
+          // Come out a little way past the destination segment, along the turned direction.
+          double dx = rx * cos - ry * sin;
+          double dy = rx * sin + ry * cos;
+          double length = Math.sqrt(dx * dx + dy * dy);
+          point[0] = cx;
+          point[1] = cy;
+          portalLink.transform(point, 1);
+          x = point[0] + dx / length * NUDGE;
+          y = point[1] + dy / length * NUDGE;
+
+          double turnedVx = vx * cos - vy * sin;
+          vy = vx * sin + vy * cos;
+          vx = turnedVx;
+          double leftX = rx * (1 - t);
+          double leftY = ry * (1 - t);
+          rx = leftX * cos - leftY * sin;
+          ry = leftX * sin + leftY * cos;
+          double left = Math.sqrt(rx * rx + ry * ry);
+          if (left > NUDGE) {
+            rx *= 1 - NUDGE / left;
+            ry *= 1 - NUDGE / left;
+          } else {
+            rx = 0;
+            ry = 0;
+          }
+        } else {
+          // Bounce, turning back whatever part of the velocity and the rest of the move heads
+          // into the wall.
+          double nx = collision.normal().dx();
+          double ny = collision.normal().dy();
+          x = cx + nx * SKIN;
+          y = cy + ny * SKIN;
+          double into = vx * nx + vy * ny;
+          if (into < 0) {
+            vx += nx * (-2 * into);
+            vy += ny * (-2 * into);
+          }
+          rx *= 1 - t;
+          ry *= 1 - t;
+          into = rx * nx + ry * ny;
+          if (into < 0) {
+            rx += nx * (-2 * into);
+            ry += ny * (-2 * into);
+          }
+        }
+      }
+
+      group.x[i] = x;
+      group.y[i] = y;
+      group.vx[i] = vx;
+      group.vy[i] = vy;
+      if (space != group.space) {
+        group.leavingFor[i] = space;
+        group.anyLeaving = true;
+      }
+    }
+  }
+}
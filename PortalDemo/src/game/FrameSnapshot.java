@@ -0,0 +1,49 @@
+package game;
+
+import com.google.auto.value.AutoValue;
+import geom.Angle;
+import geom.EnclosedRaycastSpace;
+import geom.Point;
+
+// Everything a frame is drawn from, as of the end of one tick.
+//
+// The tick thread publishes a new snapshot after every tick and never changes one it has
+// published, so the renderer can draw from whichever is latest without locking. Spaces don't
+// change once play starts, so holding on to one here is safe.
+@AutoValue
+public abstract class FrameSnapshot {
+  public abstract EnclosedRaycastSpace space();
+  public abstract Point position();
+  public abstract Angle camera();
+  public abstract long portalCrossings();
+
+  public static FrameSnapshot of(Player player) {
+    return new AutoValue_FrameSnapshot(player.space(), player.position(), player.camera(),
+        player.portalCrossings());
+  }
+
+  // The state `alpha` of the way from `from` to `to`, turning the short way round.
+  //
+  // If the player went through a portal in between, there's nothing in between to show, so this
+  // snaps to `to`.
+  public static FrameSnapshot interpolate(FrameSnapshot from, FrameSnapshot to, double alpha) {
+    if (from.portalCrossings() != to.portalCrossings() || alpha >= 1) {
+      return to;
+    }
+    if (alpha <= 0) {
+      return from;
+    }
+
+    Point position = Point.create(
+        from.position().x() + alpha * (to.position().x() - from.position().x()),
+        from.position().y() + alpha * (to.position().y() - from.position().y()));
+    double turn = to.camera().radians() - from.camera().radians();
+    if (turn > Math.PI) {
+      turn -= 2 * Math.PI;
+    } else if (turn < -Math.PI) {
+      turn += 2 * Math.PI;
+    }
+    Angle camera = Angle.ofRadians(from.camera().radians() + alpha * turn);
+    return new AutoValue_FrameSnapshot(to.space(), position, camera, to.portalCrossings());
+  }
+}
@@ -2,84 +2,161 @@ package game;
 
 import java.awt.Color;
 import java.awt.Graphics2D;
-import java.awt.Shape;
 import java.awt.geom.AffineTransform;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReference;
 import geom.Angle;
+import geom.Polygon;
+import geom.PotentiallyVisibleSet;
 import geom.RadialVector;
 import geom.RayTrace;
-import geom.Rectangle;
+import geom.TracePolicy;
 import geom.Vector;
+import graphics.Rasterizer;
+import graphics.Renderer;
+import graphics.SolidColorRenderer;
 
 public class GameState {
   private static final double MOVEMENT_SPEED = 2.0;
   private static final double ROTATION_SPEED = Math.PI / 60;
   private static final int PLAYER_RADIUS = 20;
   private static final double MAX_VISIBILITY = 800;
+  private static final int MAX_PORTAL_DEPTH = 16;
+  private static final double MIN_PORTAL_WINDOW_PIXELS = 1.0;
 
+  // Only touched by tick().
   private final Player player;
+  // Written by tick(), read by render(), which may be on different threads.
+  private final AtomicReference<FrameSnapshot> snapshot;
+  private final TracePolicy.CullCounter cullCounter = new TracePolicy.CullCounter();
+  private final TraceCache traceCache;
+
+  // Render thread only. If set, solid-colored scopes are filled by `rasterizer` rather than by
+  // Java2D, sized to the last frame drawn.
+  private boolean softwareRendering = false;
+  private Rasterizer rasterizer = null;
+  private final DrawList drawList = new DrawList();
+  private final List<Polygon> batchScopes = new ArrayList<>();
+  private final List<AffineTransform> batchTransforms = new ArrayList<>();
 
   public GameState(Player player) {
+    this(player, TracePolicy.builder().setMaxDepth(MAX_PORTAL_DEPTH)
+        .setMinWindowPixels(MIN_PORTAL_WINDOW_PIXELS).build(), null);
+  }
+
+  // Traces through portals in parallel on `tracePool`, if not null. Culls are reported both to
+  // `tracePolicy` and to cullCounter().
+  public GameState(Player player, TracePolicy tracePolicy, ForkJoinPool tracePool) {
     this.player = player;
+    this.snapshot = new AtomicReference<>(FrameSnapshot.of(player));
+    PotentiallyVisibleSet.build(player.space(), MAX_VISIBILITY);
+    this.traceCache = new TraceCache(tracePolicy.toBuilder()
+        .setCullListener((portalLink, depth, windowPixels, reason) -> {
+          cullCounter.culled(portalLink, depth, windowPixels, reason);
+          tracePolicy.cullListener().culled(portalLink, depth, windowPixels, reason);
+        }).build(), tracePool);
+  }
+
+  public TracePolicy.CullCounter cullCounter() {
+    return cullCounter;
+  }
+
+  // Whether to fill scopes with the software Rasterizer instead of clipping and filling through
+  // Java2D. Scopes are then aliased, but clipping to them is by far the bulk of a frame's paint
+  // cost. To be called from the render thread, or before it starts.
+  public void setSoftwareRendering(boolean softwareRendering) {
+    this.softwareRendering = softwareRendering;
   }
 
   public void tick(InputState inputState) {
     player.move(movementVector(inputState));
     player.rotateCamera(cameraChange(inputState));
+    snapshot.set(FrameSnapshot.of(player));
+  }
+
+  // The state as of the latest tick.
+  public FrameSnapshot snapshot() {
+    return snapshot.get();
   }
 
+  // Draws the latest snapshot. Safe to call from any one thread while another ticks.
   public void render(Graphics2D g2d, int width, int height) {
-    g2d.translate(width/2 - player.position().x(), height/2 - player.position().y());
-    g2d.rotate(-player.camera().radians(), player.position().x(), player.position().y());
-
-    RayTrace trace = null;
-    try {
-      trace = RayTrace.buildRadialTrace(player.space(), player.position(), MAX_VISIBILITY);
-    } catch (Exception ex) { ex.printStackTrace(); }
-
-    if (trace != null) {
-      renderRecursively(g2d, trace, this::renderBackground);
-      renderRecursively(g2d, trace, this::renderPlayer);
-    } else {
-      Shape prev = g2d.getClip();
-      g2d.clip(player.space().exteriorPolygon().toShape());
-      player.space().renderer().render(g2d, Rectangle.create(player.position(), width, height));
-      g2d.setClip(prev);
-    }
+    render(g2d, width, height, snapshot());
   }
-  
-  private void renderBackground(Graphics2D g2d, RayTrace trace) {
-    Shape prev = g2d.getClip();
-    g2d.clip(trace.scope().toShape());
-    trace.space().renderer().render(g2d, trace.scope().boundingRect());
-    g2d.setClip(prev);
+
+  public void render(Graphics2D g2d, int width, int height, FrameSnapshot frame) {
+    paint(g2d, width, height, frame, trace(frame));
   }
-  
-  private void renderPlayer(Graphics2D g2d, RayTrace trace) {
-    if (trace.space() == player.space() && trace.scope().toShape().contains(player.position().x(), player.position().y())) {
-      g2d.setColor(Color.red);
-      g2d.fillOval((int) (player.position().x() - PLAYER_RADIUS / 2),
-          (int) (player.position().y() - PLAYER_RADIUS / 2), PLAYER_RADIUS, PLAYER_RADIUS);
-    }
+
+  // The first half of render(): what can be seen from `frame`. Traces only fail from on or outside
+  // the walls, and Player keeps clear of those, so a failure here is a bug and is left to surface.
+  public RayTrace trace(FrameSnapshot frame) {
+    return traceCache.trace(frame.space(), frame.position(), MAX_VISIBILITY);
   }
-  
-  @FunctionalInterface
-  private static interface RayTraceRenderer {
-    void render(Graphics2D g2d, RayTrace trace);
+
+  // As trace(), but always tracing afresh, even if the player hasn't moved since the last trace.
+  // For timing traces.
+  public RayTrace traceUncached(FrameSnapshot frame) {
+    return traceCache.build(frame.space(), frame.position(), MAX_VISIBILITY);
   }
-  
-  private void renderRecursively(Graphics2D g2d, RayTrace trace, RayTraceRenderer rayTraceRenderer) {
-    rayTraceRenderer.render(g2d, trace);
-
-    for (RayTrace.RecursiveRayTrace recursiveTrace : trace.recursiveRayTraces()) {
-      AffineTransform tx = g2d.getTransform();
-      g2d.transform(recursiveTrace.portalLink().invTransform());
-      renderRecursively(g2d, recursiveTrace.rayTrace(), rayTraceRenderer);
-      g2d.setTransform(tx);
+
+  // The second half of render(): draws `trace`, as traced from `frame`.
+  public void paint(Graphics2D g2d, int width, int height, FrameSnapshot frame, RayTrace trace) {
+    AffineTransform view = AffineTransform.getTranslateInstance(
+        width/2 - frame.position().x(), height/2 - frame.position().y());
+    view.rotate(-frame.camera().radians(), frame.position().x(), frame.position().y());
+    drawList.compile(trace, view, frame);
+
+    if (softwareRendering) {
+      if (rasterizer == null || rasterizer.width() != width || rasterizer.height() != height) {
+        rasterizer = new Rasterizer(width, height);
+      }
+      rasterizer.clear(Color.black.getRGB());
+      for (int i = 0; i < drawList.size(); i++) {
+        if (drawList.layer(i) == DrawList.Layer.BACKGROUND && isRasterized(drawList.renderer(i))) {
+          rasterizer.fillPolygon(drawList.clip(i), drawList.transform(i),
+              ((SolidColorRenderer) drawList.renderer(i)).color().getRGB());
+        }
+      }
+      rasterizer.blit(g2d);
+    }
+
+    AffineTransform base = g2d.getTransform();
+    for (int i = 0, end; i < drawList.size(); i = end) {
+      end = drawList.batchEnd(i);
+      switch (drawList.layer(i)) {
+        case BACKGROUND:
+          // Anything the rasterizer can't fill still goes through Java2D, every view of the space
+          // at once.
+          if (!softwareRendering || !isRasterized(drawList.renderer(i))) {
+            batchScopes.clear();
+            batchTransforms.clear();
+            for (int j = i; j < end; j++) {
+              batchScopes.add(drawList.clip(j));
+              batchTransforms.add(drawList.transform(j));
+            }
+            drawList.renderer(i).renderBatch(g2d, batchScopes, batchTransforms);
+          }
+          break;
+        case PLAYER:
+          g2d.setColor(Color.red);
+          for (int j = i; j < end; j++) {
+            g2d.transform(drawList.transform(j));
+            g2d.fillOval((int) (frame.position().x() - PLAYER_RADIUS / 2),
+                (int) (frame.position().y() - PLAYER_RADIUS / 2), PLAYER_RADIUS, PLAYER_RADIUS);
+            g2d.setTransform(base);
+          }
+          break;
+      }
     }
   }
 
+  private static boolean isRasterized(Renderer renderer) {
+    return renderer instanceof SolidColorRenderer;
+  }
+
   private RadialVector movementVector(InputState inputState) {
     List<Vector> vectors = new ArrayList<>();
     if (inputState.playerControlDown().isPressed()) {
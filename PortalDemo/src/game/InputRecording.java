@@ -0,0 +1,191 @@
+package game;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.OptionalLong;
+import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableList;
+
+// The InputState of every tick of a game, which is all it takes to play the game again exactly.
+//
+// Files are the magic number and version, then the fingerprint of the level as a long, then runs
+// of identical ticks until the end of the file: the length of the run as a varint, then the state
+// as two bytes of InputState masks. Ticks with nothing pressed or nothing changing come in long
+// runs, so a minute of play is usually well under a kilobyte. Version 1 files have no fingerprint.
+// Recordings hold at most MAX_TICKS ticks; longer ones are refused as corrupt rather than read
+// into memory.
+@AutoValue
+public abstract class InputRecording {
+  private static final int MAGIC = 0x50444952; // "PDIR"
+  private static final int VERSION = 2;
+  private static final int VERSION_WITHOUT_LEVEL = 1;
+  // About three days of play at 60 ticks a second.
+  static final int MAX_TICKS = 1 << 24;
+
+  // The LevelManager.fingerprint() of the level played, or empty for a version 1 recording.
+  public abstract OptionalLong levelFingerprint();
+  public abstract ImmutableList<InputState> inputStates();
+
+  static InputRecording create(OptionalLong levelFingerprint,
+      ImmutableList<InputState> inputStates) {
+    return new AutoValue_InputRecording(levelFingerprint, inputStates);
+  }
+
+  public static final class Recorder implements Closeable {
+    private final DataOutputStream out;
+    private int masks = -1;
+    private long runLength = 0;
+    private boolean closed = false;
+    // The first write that failed. Recording stops there, and close() throws it.
+    private IOException failure = null;
+
+    private Recorder(OutputStream out, long levelFingerprint) throws IOException {
+      this.out = new DataOutputStream(new BufferedOutputStream(out));
+      this.out.writeInt(MAGIC);
+      this.out.writeByte(VERSION);
+      this.out.writeLong(levelFingerprint);
+    }
+
+    // Called by the tick thread, once per tick. Ticks after close() are ignored, so closing from
+    // a shutdown hook doesn't race the game, and so are ticks after a write fails, so a full disk
+    // doesn't stop the game.
+    public synchronized void record(InputState inputState) {
+      if (closed || failure != null) {
+        return;
+      }
+
+      int next = inputState.masks();
+      if (next != masks) {
+        flushRun();
+        masks = next;
+      }
+      runLength++;
+    }
+
+    private void flushRun() {
+      if (runLength == 0) {
+        return;
+      }
+      try {
+        writeVarint(out, runLength);
+        out.writeShort(masks);
+      } catch (IOException ex) {
+        failure = ex;
+      }
+      runLength = 0;
+    }
+
+    // Throws the first failed write, if any, once the file is closed.
+    @Override
+    public synchronized void close() throws IOException {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      if (failure == null) {
+        flushRun();
+      }
+      try {
+        out.close();
+      } catch (IOException ex) {
+        if (failure == null) {
+          failure = ex;
+        } else if (ex != failure) {
+          failure.addSuppressed(ex);
+        }
+      }
+      if (failure != null) {
+        throw failure;
+      }
+    }
+  }
+
+  // Records a game played on the level with `levelFingerprint`.
+  public static Recorder record(Path path, long levelFingerprint) throws IOException {
+    return record(Files.newOutputStream(path), levelFingerprint);
+  }
+
+  static Recorder record(OutputStream out, long levelFingerprint) throws IOException {
+    return new Recorder(out, levelFingerprint);
+  }
+
+  public static InputRecording read(Path path) throws IOException {
+    try (InputStream in = Files.newInputStream(path)) {
+      return read(in);
+    }
+  }
+
+  public static InputRecording read(InputStream in) throws IOException {
+    DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+    if (data.readInt() != MAGIC) {
+      throw new IOException("Not an input recording");
+    }
+    int version = data.readUnsignedByte();
+    OptionalLong levelFingerprint;
+    if (version == VERSION) {
+      levelFingerprint = OptionalLong.of(data.readLong());
+    } else if (version == VERSION_WITHOUT_LEVEL) {
+      levelFingerprint = OptionalLong.empty();
+    } else {
+      throw new IOException("Unsupported input recording version " + version);
+    }
+
+    ImmutableList.Builder<InputState> builder = ImmutableList.builder();
+    long ticks = 0;
+    while (true) {
+      int first = data.read();
+      if (first < 0) {
+        return create(levelFingerprint, builder.build());
+      }
+      long runLength = readVarint(data, first);
+      ticks += runLength;
+      if (runLength < 0 || runLength > MAX_TICKS || ticks > MAX_TICKS) {
+        throw new IOException("Corrupt input recording");
+      }
+      InputState inputState;
+      try {
+        inputState = InputState.fromMasks(data.readUnsignedShort());
+      } catch (IllegalArgumentException ex) {
+        throw new IOException("Corrupt input recording", ex);
+      }
+      for (long i = 0; i < runLength; i++) {
+        builder.add(inputState);
+      }
+    }
+  }
+
+  private static void writeVarint(DataOutputStream out, long value) throws IOException {
+    while ((value & ~0x7FL) != 0) {
+      out.writeByte((int) (value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.writeByte((int) value);
+  }
+
+  // Reads a varint of at most 64 bits, whose first byte is `first`.
+  private static long readVarint(DataInputStream in, int first) throws IOException {
+    long value = first & 0x7F;
+    int shift = 7;
+    for (int b = first; (b & 0x80) != 0; shift += 7) {
+      b = in.read();
+      if (b < 0) {
+        throw new EOFException("Truncated input recording");
+      }
+      // The tenth byte has room for one more bit, and there's no eleventh.
+      if (shift > 63 || (shift == 63 && (b & 0x7E) != 0)) {
+        throw new IOException("Corrupt input recording");
+      }
+      value |= (long) (b & 0x7F) << shift;
+    }
+    return value;
+  }
+}
@@ -1,5 +1,6 @@
 package game;
 
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import com.google.auto.value.AutoValue;
@@ -9,6 +10,10 @@ import com.google.common.collect.ImmutableList;
 
 @AutoValue
 public abstract class InputState {
+  private static final int NUM_KEYS = 6;
+
+  // Every possible InputState, indexed by masks().
+  private static final InputState[] INTERNED = intern();
 
   public abstract KeyState playerControlLeft();
 
@@ -34,8 +39,50 @@ public abstract class InputState {
             playerControlCameraRight());
   }
 
+  // This state as fromMasks() takes it, packed into the low 12 bits: down | fresh << 6.
+  @Memoized
+  int masks() {
+    int masks = 0;
+    for (int key = 0; key < NUM_KEYS; key++) {
+      KeyState keyState = keyStateList().get(key);
+      if (keyState.isPressed()) {
+        masks |= 1 << key;
+      }
+      if (keyState == KeyState.PRESSED || keyState == KeyState.UNPRESSED) {
+        masks |= 1 << (key + NUM_KEYS);
+      }
+    }
+    return masks;
+  }
+
   public abstract Builder toBuilder();
 
+  // The state with key i of keyStateList() down if bit i of `down` is set, and changed since the
+  // last tick if bit i of `fresh` is. Always the same instance for the same masks.
+  static InputState fromMasks(int down, int fresh) {
+    return INTERNED[down | fresh << NUM_KEYS];
+  }
+
+  static InputState fromMasks(int masks) {
+    Preconditions.checkArgument(masks >= 0 && masks < INTERNED.length, "bad masks: %s", masks);
+    return INTERNED[masks];
+  }
+
+  private static InputState[] intern() {
+    InputState[] states = new InputState[1 << 2 * NUM_KEYS];
+    for (int i = 0; i < states.length; i++) {
+      List<KeyState> keyStates = new ArrayList<>();
+      for (int key = 0; key < NUM_KEYS; key++) {
+        boolean down = (i & 1 << key) != 0;
+        boolean fresh = (i & 1 << (key + NUM_KEYS)) != 0;
+        keyStates.add(down ? (fresh ? KeyState.PRESSED : KeyState.HELD)
+            : (fresh ? KeyState.UNPRESSED : KeyState.UNHELD));
+      }
+      states[i] = builder().setKeyStateList(keyStates).build();
+    }
+    return states;
+  }
+
   public static Builder builder() {
     return new AutoValue_InputState.Builder()
         .setPlayerControlLeft(KeyState.UNHELD)
@@ -62,7 +109,7 @@ public abstract class InputState {
     public abstract Builder setPlayerControlCameraRight(KeyState keyState);
 
     public Builder setKeyStateList(List<KeyState> keyStates) {
-      Preconditions.checkArgument(keyStates.size() == 6);
+      Preconditions.checkArgument(keyStates.size() == NUM_KEYS);
 
       Iterator<KeyState> iter = keyStates.iterator();
       return setPlayerControlLeft(iter.next())
@@ -2,126 +2,127 @@ package game;
 
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
-import java.util.ArrayList;
-import java.util.List;
-import com.google.common.collect.ImmutableList;
-import com.google.errorprone.annotations.concurrent.GuardedBy;
-
+import java.util.concurrent.atomic.AtomicLong;
+
+// Turns key events into one InputState per tick.
+//
+// The EDT writes raw key transitions into a single-producer, single-consumer ring, and the tick
+// thread drains it in nextInputState(). Neither side locks or allocates. Key states are kept as two
+// bitmasks, bit i for key i of InputState.keyStateList(): whether the key is down, and whether it
+// changed this tick (PRESSED or UNPRESSED rather than HELD or UNHELD).
 public class InputStateManager implements KeyListener {
-
-  @GuardedBy("this")
-  private InputState prevInputState;
-
-  @GuardedBy("this")
-  private InputState inputState;
+  // A power of two. A person can't press this many keys between two ticks.
+  static final int RING_SIZE = 256;
+  private static final int RING_MASK = RING_SIZE - 1;
+
+  private static final int LEFT = 1 << 0;
+  private static final int RIGHT = 1 << 1;
+  private static final int DOWN = 1 << 2;
+  private static final int UP = 1 << 3;
+  private static final int CAMERA_LEFT = 1 << 4;
+  private static final int CAMERA_RIGHT = 1 << 5;
+
+  // Set on ring entries for presses; entries for releases are just the key's bit.
+  private static final int PRESS = 1 << 8;
+
+  // If set, every state returned by nextInputState() is recorded.
+  private final InputRecording.Recorder recorder;
+
+  private final int[] ring = new int[RING_SIZE];
+  // Events written, and events read. Each is only ever advanced by its own side.
+  private final AtomicLong tail = new AtomicLong();
+  private final AtomicLong head = new AtomicLong();
+
+  // Tick thread only.
+  private int down = 0;
+  private int fresh = 0;
+  private int prevDown = 0;
+  private int prevFresh = 0;
 
   public InputStateManager() {
-    prevInputState = InputState.builder().build();
-    inputState = InputState.builder().build();
+    this(null);
   }
 
-  private KeyState updateKeyStateBetweenEvents(KeyState oldKeyState, KeyState newKeyState) {
-    if (oldKeyState == KeyState.HELD && newKeyState == KeyState.PRESSED) {
-      return KeyState.HELD;
-    } else if (oldKeyState == KeyState.UNHELD && newKeyState == KeyState.UNPRESSED) {
-      return KeyState.UNHELD;
-    } else {
-      return newKeyState;
-    }
+  public InputStateManager(InputRecording.Recorder recorder) {
+    this.recorder = recorder;
   }
 
-  private KeyState updateKeyStateBetweenFrames(KeyState oldKeyState, KeyState newKeyState) {
-    if (newKeyState != oldKeyState) {
-      return newKeyState;
+  public InputState nextInputState() {
+    long end = tail.get();
+    for (long i = head.get(); i < end; i++) {
+      int event = ring[(int) i & RING_MASK];
+      int key = event & ~PRESS;
+      boolean press = (event & PRESS) != 0;
+      // Repeats of a press or a release already seen last tick don't start it over.
+      boolean settled = (fresh & key) == 0 && ((down & key) != 0) == press;
+      if (!settled) {
+        down = press ? down | key : down & ~key;
+        fresh |= key;
+      }
     }
-
-    switch (newKeyState) {
-      case PRESSED:
-        return KeyState.HELD;
-      case UNPRESSED:
-        return KeyState.UNHELD;
-      default:
-        return newKeyState;
+    head.lazySet(end);
+
+    // Keys untouched since last tick move on from PRESSED to HELD, or UNPRESSED to UNHELD.
+    int untouched = ~((down ^ prevDown) | (fresh ^ prevFresh));
+    fresh &= ~untouched;
+    prevDown = down;
+    prevFresh = fresh;
+    InputState inputState = InputState.fromMasks(down, fresh);
+    if (recorder != null) {
+      recorder.record(inputState);
     }
+    return inputState;
   }
 
-  public synchronized InputState nextInputState() {
-    // Update idempotent key states.
-    ImmutableList<KeyState> oldKeyStates = prevInputState.keyStateList();
-    ImmutableList<KeyState> newKeyStates = inputState.keyStateList();
-
-    List<KeyState> newNewKeyStates = new ArrayList<>();
-    for (int i = 0; i < oldKeyStates.size(); i++) {
-      newNewKeyStates.add(updateKeyStateBetweenFrames(oldKeyStates.get(i), newKeyStates.get(i)));
+  private void updateKeyState(KeyEvent e, boolean press) {
+    int key = keyFor(e.getKeyCode());
+    if (key == 0) {
+      return;
     }
 
-    prevInputState = inputState.toBuilder().setKeyStateList(newNewKeyStates).build();
-    inputState = prevInputState;
-    return inputState;
+    long t = tail.get();
+    if (t - head.get() >= RING_SIZE) {
+      // The tick thread has stalled; drop the event rather than stall the EDT too.
+      return;
+    }
+    ring[(int) t & RING_MASK] = press ? key | PRESS : key;
+    tail.lazySet(t + 1);
   }
 
-  private synchronized void updateKeyState(KeyEvent e, KeyState newState) {
-    switch (e.getKeyCode()) {
+  private static int keyFor(int keyCode) {
+    switch (keyCode) {
       case KeyEvent.VK_Q:
-        inputState = inputState.toBuilder()
-            .setPlayerControlCameraLeft(
-                updateKeyStateBetweenEvents(inputState.playerControlCameraLeft(), newState))
-            .build();
-        break;
+        return CAMERA_LEFT;
       case KeyEvent.VK_E:
-        inputState = inputState.toBuilder()
-            .setPlayerControlCameraRight(
-                updateKeyStateBetweenEvents(inputState.playerControlCameraRight(), newState))
-            .build();
-        break;
+        return CAMERA_RIGHT;
       case KeyEvent.VK_A:
       case KeyEvent.VK_LEFT:
-        inputState = inputState
-            .toBuilder()
-            .setPlayerControlLeft(
-                updateKeyStateBetweenEvents(inputState.playerControlLeft(), newState))
-            .build();
-        break;
+        return LEFT;
       case KeyEvent.VK_D:
       case KeyEvent.VK_RIGHT:
-        inputState = inputState
-            .toBuilder()
-            .setPlayerControlRight(
-                updateKeyStateBetweenEvents(inputState.playerControlRight(), newState))
-            .build();
-        break;
+        return RIGHT;
       case KeyEvent.VK_S:
       case KeyEvent.VK_DOWN:
-        inputState = inputState
-            .toBuilder()
-            .setPlayerControlDown(
-                updateKeyStateBetweenEvents(inputState.playerControlDown(), newState))
-            .build();
-        break;
+        return DOWN;
       case KeyEvent.VK_W:
       case KeyEvent.VK_UP:
-        inputState = inputState
-            .toBuilder()
-            .setPlayerControlUp(
-                updateKeyStateBetweenEvents(inputState.playerControlUp(), newState))
-            .build();
-        break;
+        return UP;
       default:
-        break;
+        return 0;
     }
   }
 
   @Override
-  public synchronized void keyPressed(KeyEvent e) {
-    updateKeyState(e, KeyState.PRESSED);
+  public void keyPressed(KeyEvent e) {
+    updateKeyState(e, true);
   }
 
   @Override
-  public synchronized void keyReleased(KeyEvent e) {
-    updateKeyState(e, KeyState.UNPRESSED);
+  public void keyReleased(KeyEvent e) {
+    updateKeyState(e, false);
   }
 
   @Override
-  public synchronized void keyTyped(KeyEvent e) {}
+  public void keyTyped(KeyEvent e) {}
 
 }
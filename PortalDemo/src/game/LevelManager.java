@@ -1,5 +1,316 @@
 package game;
 
-public class LevelManager {
-  
+import java.awt.Color;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hashing;
+import geom.EnclosedRaycastSpace;
+import geom.Point;
+import geom.Polygon;
+import graphics.Renderer;
+import graphics.SolidColorRenderer;
+
+// A level: its rooms, and where in them the player starts. Levels can be saved to and loaded from
+// files, so they can ship as data instead of as code like PortalLevel.
+//
+// Files are the magic number and version, then:
+//   the number of rooms, and the start position in the first room as two doubles;
+//   for each room, its id as a length and UTF-8 bytes, its color as an ARGB int, and the number of
+//   polygons, exterior first, each as the number of points and then x0, y0, x1, y1, ...;
+//   the number of portals, each as the room, polygon and segment at either end, then whether it's
+//   flipped.
+// Everything is big-endian. Each portal is stored once, for both directions. Files are read
+// through a memory map, with each polygon's coordinates copied out in one go, but that isn't what
+// loading costs: nearly all of it is building each room's runtime geometry, just as when a level
+// is made in code, so loading a level takes about as long as generating it.
+public final class LevelManager {
+  private static final int MAGIC = 0x50444C56; // "PDLV"
+  private static final int VERSION = 1;
+
+  private final ImmutableList<Room> rooms;
+  private final ImmutableMap<String, Room> roomsById;
+  private final Point start;
+
+  // The player starts at `start` in the first room.
+  public LevelManager(List<Room> rooms, Point start) {
+    Preconditions.checkArgument(!rooms.isEmpty(), "No rooms");
+    this.rooms = ImmutableList.copyOf(rooms);
+    this.roomsById = this.rooms.stream()
+        .collect(ImmutableMap.toImmutableMap(Room::id, room -> room));
+    this.start = start;
+  }
+
+  // Makes a level of every space that can be reached through portals from `startSpace`, with the
+  // player starting at `start` there. Rooms are named "room-0", "room-1", ..., starting space
+  // first.
+  public static LevelManager discover(EnclosedRaycastSpace startSpace, Point start) {
+    Set<EnclosedRaycastSpace> found = Collections.newSetFromMap(new IdentityHashMap<>());
+    List<Room> rooms = new ArrayList<>();
+    Queue<EnclosedRaycastSpace> queue = new ArrayDeque<>();
+    queue.add(startSpace);
+    found.add(startSpace);
+    while (!queue.isEmpty()) {
+      EnclosedRaycastSpace space = queue.remove();
+      rooms.add(new Room("room-" + rooms.size(), space));
+      space.polygonRefs().flatMap(p -> p.lineSegmentRefs().stream())
+          .filter(EnclosedRaycastSpace.LineSegmentRef::hasPortalLink)
+          .map(ls -> ls.portalLink().destSpace()).forEachOrdered(dest -> {
+            if (found.add(dest)) {
+              queue.add(dest);
+            }
+          });
+    }
+    return new LevelManager(rooms, start);
+  }
+
+  public ImmutableList<Room> rooms() {
+    return rooms;
+  }
+
+  public Room room(String id) {
+    Room room = roomsById.get(id);
+    Preconditions.checkArgument(room != null, "No room %s", id);
+    return room;
+  }
+
+  public Room startRoom() {
+    return rooms.get(0);
+  }
+
+  public Point start() {
+    return start;
+  }
+
+  // Only rooms drawn in a solid color can be saved, and portals may only lead between this level's
+  // rooms.
+  public void save(Path path) throws IOException {
+    try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(path))) {
+      write(out);
+    }
+  }
+
+  // A hash of this level as save() would write it, which a level loaded from a file shares with
+  // the level it was saved from. Input recordings keep it, to tell which level they were made on.
+  // Only levels that can be saved have one.
+  public long fingerprint() {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try {
+      write(bytes);
+    } catch (IOException ex) {
+      throw new UncheckedIOException(ex);
+    }
+    return Hashing.murmur3_128().hashBytes(bytes.toByteArray()).asLong();
+  }
+
+  private void write(OutputStream stream) throws IOException {
+    // Where each polygon is, as room index << 32 | polygon index.
+    Map<EnclosedRaycastSpace.PolygonRef, Long> polygonIndices = new IdentityHashMap<>();
+    for (int r = 0; r < rooms.size(); r++) {
+      List<EnclosedRaycastSpace.PolygonRef> polygonRefs = polygonRefs(rooms.get(r));
+      for (int p = 0; p < polygonRefs.size(); p++) {
+        polygonIndices.put(polygonRefs.get(p), (long) r << 32 | p);
+      }
+    }
+
+    DataOutputStream out = new DataOutputStream(stream);
+    out.writeInt(MAGIC);
+    out.writeByte(VERSION);
+    out.writeInt(rooms.size());
+    out.writeDouble(start.x());
+    out.writeDouble(start.y());
+
+    List<EnclosedRaycastSpace.PortalLink> portalLinks = new ArrayList<>();
+    for (Room room : rooms) {
+      byte[] id = room.id().getBytes(StandardCharsets.UTF_8);
+      out.writeInt(id.length);
+      out.write(id);
+
+      Renderer renderer = room.raycastSpace().renderer();
+      Preconditions.checkArgument(renderer instanceof SolidColorRenderer,
+          "Room %s isn't a solid color", room.id());
+      out.writeInt(((SolidColorRenderer) renderer).color().getRGB());
+
+      List<EnclosedRaycastSpace.PolygonRef> polygonRefs = polygonRefs(room);
+      out.writeInt(polygonRefs.size());
+      for (EnclosedRaycastSpace.PolygonRef polygonRef : polygonRefs) {
+        Polygon polygon = polygonRef.polygon();
+        out.writeInt(polygon.numPoints());
+        for (Point point : polygon.points()) {
+          out.writeDouble(point.x());
+          out.writeDouble(point.y());
+        }
+        for (EnclosedRaycastSpace.LineSegmentRef ls : polygonRef.lineSegmentRefs()) {
+          if (ls.hasPortalLink()) {
+            portalLinks.add(ls.portalLink());
+          }
+        }
+      }
+    }
+
+    // Each portal is linked both ways; keep the direction from the earlier segment.
+    List<long[]> portals = new ArrayList<>();
+    for (EnclosedRaycastSpace.PortalLink portalLink : portalLinks) {
+      EnclosedRaycastSpace.LineSegmentRef dest = portalLink.destSegmentRef();
+      EnclosedRaycastSpace.LineSegmentRef src = dest.portalLink().destSegmentRef();
+      long[] ends = {segmentIndex(polygonIndices, src), segmentIndex(polygonIndices, dest),
+          portalLink.flipped() ? 1 : 0};
+      if (ends[0] < ends[1]) {
+        portals.add(ends);
+      }
+    }
+    out.writeInt(portals.size());
+    for (long[] portal : portals) {
+      writeSegmentIndex(out, portal[0]);
+      writeSegmentIndex(out, portal[1]);
+      out.writeByte((int) portal[2]);
+    }
+    out.flush();
+  }
+
+  private static List<EnclosedRaycastSpace.PolygonRef> polygonRefs(Room room) {
+    List<EnclosedRaycastSpace.PolygonRef> polygonRefs = new ArrayList<>();
+    room.raycastSpace().polygonRefs().forEachOrdered(polygonRefs::add);
+    return polygonRefs;
+  }
+
+  // The segment as room << 40 | polygon << 20 | segment, which orders segments as the file does.
+  private static long segmentIndex(Map<EnclosedRaycastSpace.PolygonRef, Long> polygonIndices,
+      EnclosedRaycastSpace.LineSegmentRef ls) {
+    Long polygonIndex = polygonIndices.get(ls.polygonRef());
+    Preconditions.checkArgument(polygonIndex != null, "Portal leads out of the level");
+    Preconditions.checkArgument((polygonIndex & 0xFFFFFFFFL) < 1 << 20 && ls.index() < 1 << 20,
+        "Too many polygons or points to save");
+    return (polygonIndex >>> 32) << 40 | (polygonIndex & 0xFFFFFFFFL) << 20 | ls.index();
+  }
+
+  private static void writeSegmentIndex(DataOutputStream out, long segmentIndex)
+      throws IOException {
+    out.writeInt((int) (segmentIndex >>> 40));
+    out.writeInt((int) (segmentIndex >>> 20) & 0xFFFFF);
+    out.writeInt((int) segmentIndex & 0xFFFFF);
+  }
+
+  public static LevelManager load(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      return read(buffer);
+    }
+  }
+
+  public static LevelManager read(ByteBuffer buffer) throws IOException {
+    try {
+      return readLevel(buffer.duplicate().order(ByteOrder.BIG_ENDIAN));
+    } catch (BufferUnderflowException ex) {
+      throw new IOException("Truncated level file", ex);
+    } catch (IllegalArgumentException | IndexOutOfBoundsException ex) {
+      throw new IOException("Corrupt level file", ex);
+    }
+  }
+
+  private static LevelManager readLevel(ByteBuffer buffer) throws IOException {
+    if (buffer.getInt() != MAGIC) {
+      throw new IOException("Not a level file");
+    }
+    int version = buffer.get() & 0xFF;
+    if (version != VERSION) {
+      throw new IOException("Unsupported level file version " + version);
+    }
+
+    int numRooms = checkCount(buffer.getInt(), buffer, 12);
+    Preconditions.checkArgument(numRooms > 0, "No rooms");
+    Point start = Point.create(buffer.getDouble(), buffer.getDouble());
+
+    List<Room> rooms = new ArrayList<>(numRooms);
+    Map<String, Room> ids = new HashMap<>();
+    List<List<EnclosedRaycastSpace.PolygonRef>> polygonRefs = new ArrayList<>(numRooms);
+    double[] coords = new double[0];
+    for (int r = 0; r < numRooms; r++) {
+      byte[] idBytes = new byte[checkCount(buffer.getInt(), buffer, 1)];
+      buffer.get(idBytes);
+      String id = new String(idBytes, StandardCharsets.UTF_8);
+      Renderer renderer = Renderer.forColor(new Color(buffer.getInt(), true));
+
+      int numPolygons = checkCount(buffer.getInt(), buffer, 4);
+      Preconditions.checkArgument(numPolygons > 0, "Room %s has no walls", id);
+      List<EnclosedRaycastSpace.PolygonRef> roomPolygonRefs = new ArrayList<>(numPolygons);
+      EnclosedRaycastSpace space = null;
+      for (int p = 0; p < numPolygons; p++) {
+        int numPoints = checkCount(buffer.getInt(), buffer, 16);
+        if (coords.length < 2 * numPoints) {
+          coords = new double[2 * numPoints];
+        }
+        buffer.asDoubleBuffer().get(coords, 0, 2 * numPoints);
+        buffer.position(buffer.position() + 16 * numPoints);
+
+        Polygon.Builder builder = Polygon.builder();
+        for (int i = 0; i < numPoints; i++) {
+          builder.addPoint(coords[2 * i], coords[2 * i + 1]);
+        }
+        if (p == 0) {
+          space = new EnclosedRaycastSpace(builder.build(), renderer);
+          roomPolygonRefs.add(space.exteriorPolygonRef());
+        } else {
+          roomPolygonRefs.add(space.addInteriorRaycastPolygon(builder.build()));
+        }
+      }
+
+      Room room = new Room(id, space);
+      Preconditions.checkArgument(ids.put(id, room) == null, "Duplicate room %s", id);
+      rooms.add(room);
+      polygonRefs.add(roomPolygonRefs);
+    }
+
+    int numPortals = checkCount(buffer.getInt(), buffer, 25);
+    for (int i = 0; i < numPortals; i++) {
+      EnclosedRaycastSpace.LineSegmentRef a = readSegment(buffer, polygonRefs);
+      EnclosedRaycastSpace.LineSegmentRef b = readSegment(buffer, polygonRefs);
+      if (buffer.get() != 0) {
+        EnclosedRaycastSpace.createFlippedPortal(a, b);
+      } else {
+        EnclosedRaycastSpace.createPortal(a, b);
+      }
+    }
+    return new LevelManager(rooms, start);
+  }
+
+  private static EnclosedRaycastSpace.LineSegmentRef readSegment(ByteBuffer buffer,
+      List<List<EnclosedRaycastSpace.PolygonRef>> polygonRefs) {
+    int room = buffer.getInt();
+    int polygon = buffer.getInt();
+    int segment = buffer.getInt();
+    return polygonRefs.get(room).get(polygon).lineSegmentRef(segment);
+  }
+
+  // Checks that `count` items of at least `bytesEach` could still be in `buffer`, so a corrupt
+  // count fails before anything is allocated for it.
+  private static int checkCount(int count, ByteBuffer buffer, int bytesEach) {
+    Preconditions.checkArgument(count >= 0 && (long) count * bytesEach <= buffer.remaining(),
+        "Bad count %s", count);
+    return count;
+  }
 }
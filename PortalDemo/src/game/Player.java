@@ -2,16 +2,28 @@ package game;
 
 import java.util.Optional;
 import geom.Angle;
+import geom.Collision;
 import geom.EnclosedRaycastSpace;
-import geom.Line;
-import geom.LineSegment;
 import geom.Point;
 import geom.RadialVector;
+import geom.Vector;
 
 public class Player {
+  // Half the size GameState draws the player at.
+  public static final double RADIUS = 10;
+  // How far the player is kept from walls it runs into, so rounding never leaves it touching one.
+  private static final double SKIN = 1e-3;
+  // How far past a portal's destination segment the player comes out.
+  private static final double NUDGE = 1e-3;
+  // Bound the slides in one move, which in a tight corner could go on forever, and the portals
+  // one move can go through.
+  private static final int MAX_SLIDES = 4;
+  private static final int MAX_CROSSINGS = 16;
+
   private Angle camera = Angle.origin();
   private EnclosedRaycastSpace space;
   private Point position;
+  private long portalCrossings = 0;
   
   public Player(EnclosedRaycastSpace space, Point position) {
     this.space = space;
@@ -22,27 +34,55 @@ public class Player {
     return camera;
   }
   
+  // Moves the player's center by `movement`, going through every portal the center crosses on the
+  // way, in order, and sliding along any walls the player runs into.
   public void move(RadialVector movement) {
-    Point newPosition = position.translate(movement);
-    LineSegment travel = LineSegment.create(position, newPosition);
-    
-    Optional<EnclosedRaycastSpace.PortalLink> portalLinkOpt = space.intersectingPortalLinks(travel);
-    if (portalLinkOpt.isPresent()) {
-      EnclosedRaycastSpace.PortalLink portalLink = portalLinkOpt.get();
-      space = portalLink.destSpace();
-      position = newPosition.transform(portalLink.transform());
-      if (Line.distanceSquared(portalLink.destSegmentRef().lineSegment().line(), position) < 1e-12) {
-        // Nudge.
-        position = position.translate(
-            RadialVector.create(
-                Angle.add(movement.angle(), portalLink.rotation()), 0.001));
+    Vector remaining = Vector.create(movement.dx(), movement.dy());
+    int slides = 0;
+    int crossings = 0;
+    while (remaining.magnitudeSquared() > 0 && slides < MAX_SLIDES && crossings < MAX_CROSSINGS) {
+      Optional<Collision> collisionOpt = space.sweepCircle(position, remaining, RADIUS);
+      if (!collisionOpt.isPresent()) {
+        position = position.translate(remaining);
+        return;
+      }
+
+      Collision collision = collisionOpt.get();
+      Point contact = position.translate(remaining.multiply(collision.time()));
+      Vector direction = remaining;
+      remaining = remaining.multiply(1 - collision.time());
+      if (collision.isPortal()) {
+        cross(collision.segmentRef().portalLink(), contact, direction);
+        crossings++;
+        remaining = remaining.rotate(collision.segmentRef().portalLink().rotation());
+        // The nudge through the destination portal comes out of the rest of the move.
+        remaining = remaining.magnitude() > NUDGE
+            ? remaining.multiply(1 - NUDGE / remaining.magnitude()) : Vector.zero();
+      } else {
+        // Stand off the wall, and keep only the part of the move along it.
+        slides++;
+        Vector normal = collision.normal();
+        position = contact.translate(normal.multiply(SKIN));
+        double into = remaining.dx() * normal.dx() + remaining.dy() * normal.dy();
+        if (into < 0) {
+          remaining = Vector.add(remaining, normal.multiply(-into));
+        }
       }
-      camera = Angle.add(camera, portalLink.rotation());
-    } else {
-      position = newPosition;
     }
   }
-  
+
+  // Takes the player through `portalLink` from `contact`, on its source segment, and just past its
+  // destination segment in the direction it was moving, so the next move doesn't cross straight
+  // back.
+  private void cross(EnclosedRaycastSpace.PortalLink portalLink, Point contact, Vector direction) {
+    space = portalLink.destSpace();
+    position = contact.transform(portalLink.transform());
+    position = position.translate(
+        direction.rotate(portalLink.rotation()).normalized().multiply(NUDGE));
+    camera = Angle.add(camera, portalLink.rotation());
+    portalCrossings++;
+  }
+
   public void rotateCamera(Angle change) {
     camera = Angle.add(camera, change);
   }
@@ -54,4 +94,10 @@ public class Player {
   public Point position() {
     return position;
   }
+
+  // How many portals the player has been through. Positions from before and after a crossing are
+  // in different frames of reference, so there's no moving smoothly between them.
+  public long portalCrossings() {
+    return portalCrossings;
+  }
 }
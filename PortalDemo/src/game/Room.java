@@ -11,5 +11,12 @@ public class Room {
     this.id = id;
     this.raycastSpace = raycastSpace;
   }
-  
+
+  public String id() {
+    return id;
+  }
+
+  public EnclosedRaycastSpace raycastSpace() {
+    return raycastSpace;
+  }
 }
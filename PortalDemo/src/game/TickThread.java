@@ -1,56 +1,85 @@
 package game;
 
-import com.google.errorprone.annotations.concurrent.GuardedBy;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 
+// Ticks the game at a steady rate, whether or not painting keeps up.
+//
+// Each tick publishes a FrameSnapshot, and the renderer draws frame() at its own pace, normally the
+// display's. Paints don't wait on ticks, nor ticks on paints; a slow paint only means some
+// snapshots are never drawn. frame() blends the last two ticks by how far the clock has moved on
+// since, so motion stays smooth whichever way paints fall between ticks.
 public class TickThread implements Runnable {
-  private static final double FPS = 60.0;
-  private static final int MAX_SKIP_FRAMES = 30;
+  private static final double DEFAULT_TICKS_PER_SECOND = 60.0;
+  // Falling further behind than this drops the backlog rather than replaying it in a burst.
+  private static final int MAX_CATCH_UP_TICKS = 4;
+
+  // The last two ticks, published together so that frame() always sees a matching pair.
+  private static final class Ticks {
+    private final FrameSnapshot previous;
+    private final FrameSnapshot current;
+    // When `current` was due, by System.nanoTime().
+    private final long currentNanos;
+
+    private Ticks(FrameSnapshot previous, FrameSnapshot current, long currentNanos) {
+      this.previous = previous;
+      this.current = current;
+      this.currentNanos = currentNanos;
+    }
+  }
 
   private final GameState gameState;
   private final InputStateManager inputStateManager;
-  private final Runnable repaint;
+  private final long tickNanos;
+  private final AtomicReference<Ticks> ticks;
 
-  @GuardedBy("this")
-  private boolean repainted = true;
+  public TickThread(GameState gameState, InputStateManager inputStateManager) {
+    this(gameState, inputStateManager, DEFAULT_TICKS_PER_SECOND);
+  }
 
-  public TickThread(GameState gameState, InputStateManager inputStateManager, Runnable repaint) {
+  public TickThread(GameState gameState, InputStateManager inputStateManager,
+      double ticksPerSecond) {
     this.gameState = gameState;
     this.inputStateManager = inputStateManager;
-    this.repaint = repaint;
+    this.tickNanos = Math.round(TimeUnit.SECONDS.toNanos(1) / ticksPerSecond);
+    FrameSnapshot start = gameState.snapshot();
+    this.ticks = new AtomicReference<>(new Ticks(start, start, System.nanoTime()));
   }
 
-  public synchronized void setRepainted(boolean repainted) {
-    this.repainted = repainted;
-  }
-
-  private synchronized boolean repainted() {
-    return this.repainted;
+  // What to draw right now: between the last two ticks, one tick behind the simulation.
+  public FrameSnapshot frame() {
+    Ticks ticks = this.ticks.get();
+    double alpha = (double) (System.nanoTime() - ticks.currentNanos) / tickNanos;
+    return FrameSnapshot.interpolate(ticks.previous, ticks.current, alpha);
   }
 
   @Override
   public void run() {
-    long frames = 0;
-    long bigBangMillis = System.currentTimeMillis();
+    long last = System.nanoTime();
+    long accumulator = 0;
 
     while (true) {
-      try {
-        Thread.sleep(1);
-      } catch (InterruptedException ignore) {}
-
-      if (!repainted()) continue;
-
-      long elapsed = System.currentTimeMillis() - bigBangMillis;
-      long expectedFrames = (long) (elapsed * FPS / 1000.0);
+      long now = System.nanoTime();
+      accumulator += now - last;
+      last = now;
+      if (accumulator > MAX_CATCH_UP_TICKS * tickNanos) {
+        accumulator = MAX_CATCH_UP_TICKS * tickNanos;
+      }
 
-      long framesToPlay = Math.min(expectedFrames - frames, MAX_SKIP_FRAMES);
-      for (long i = 0; i < framesToPlay; i++) {
-        gameState.tick(inputStateManager.nextInputState());
+      if (accumulator >= tickNanos) {
+        FrameSnapshot previous;
+        do {
+          previous = gameState.snapshot();
+          gameState.tick(inputStateManager.nextInputState());
+          accumulator -= tickNanos;
+        } while (accumulator >= tickNanos);
+        ticks.set(new Ticks(previous, gameState.snapshot(), now - accumulator));
       }
-      frames = expectedFrames;
 
-      setRepainted(false);
-      repaint.run();
+      // May wake early, or late; the accumulator absorbs either.
+      LockSupport.parkNanos(tickNanos - accumulator);
     }
   }
 
-}
\ No newline at end of file
+}
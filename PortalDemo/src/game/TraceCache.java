@@ -0,0 +1,47 @@
+package game;
+
+import java.util.concurrent.ForkJoinPool;
+import geom.EnclosedRaycastSpace;
+import geom.Point;
+import geom.RayTrace;
+import geom.TraceKernel;
+import geom.TracePolicy;
+
+// Holds on to the last trace built, so repaints that don't move the player skip tracing.
+//
+// A trace depends only on the space, position and visibility it was taken with; the camera merely
+// rotates the result. Spaces must not change once traced.
+final class TraceCache {
+  private final TracePolicy policy;
+
+  // If set, traces fan out through portals on this pool rather than running on TraceKernel.
+  private final ForkJoinPool pool;
+
+  private EnclosedRaycastSpace space = null;
+  private Point position = null;
+  private double maxDistance = Double.NaN;
+  private RayTrace trace = null;
+
+  TraceCache(TracePolicy policy, ForkJoinPool pool) {
+    this.policy = policy;
+    this.pool = pool;
+  }
+
+  public RayTrace trace(EnclosedRaycastSpace space, Point position, double maxDistance) {
+    if (trace == null || space != this.space || !position.equals(this.position)
+        || maxDistance != this.maxDistance) {
+      trace = null;
+      trace = build(space, position, maxDistance);
+      this.space = space;
+      this.position = position;
+      this.maxDistance = maxDistance;
+    }
+    return trace;
+  }
+
+  // Traces afresh, as trace() does on a miss, without touching what's held.
+  public RayTrace build(EnclosedRaycastSpace space, Point position, double maxDistance) {
+    return pool != null ? RayTrace.buildRadialTrace(space, position, maxDistance, policy, pool)
+        : TraceKernel.buildRadialTrace(space, position, maxDistance, policy);
+  }
+}
@@ -0,0 +1,123 @@
+package geom;
+
+import java.util.Optional;
+import java.util.function.Consumer;
+
+// Finds the first wall a circle hits as its center moves from (ox, oy) by (dx, dy).
+//
+// Walls are solid to the whole circle: it stops as it comes within `radius` of one, against its
+// side or either end. Portals aren't walls, so the circle can lean through a portal without being
+// stopped by it; PortalIndex finds where its center crosses them. A circle that already overlaps a
+// wall is stopped at once, but only if it's moving further in, so it can always back out.
+final class CircleSweep implements Consumer<EnclosedRaycastSpace.LineSegmentRef> {
+  private final double ox;
+  private final double oy;
+  private final double dx;
+  private final double dy;
+  private final double radius;
+
+  private double bestTime = Double.POSITIVE_INFINITY;
+  private EnclosedRaycastSpace.LineSegmentRef best = null;
+  private double bestNx = 0;
+  private double bestNy = 0;
+
+  CircleSweep(Point origin, Vector delta, double radius) {
+    this.ox = origin.x();
+    this.oy = origin.y();
+    this.dx = delta.dx();
+    this.dy = delta.dy();
+    this.radius = radius;
+  }
+
+  Optional<Collision> collision() {
+    if (best == null) {
+      return Optional.empty();
+    }
+    return Optional.of(Collision.create(bestTime, best, Vector.create(bestNx, bestNy)));
+  }
+
+  @Override
+  public void accept(EnclosedRaycastSpace.LineSegmentRef segment) {
+    if (!segment.hasPortalLink()) {
+      testWall(segment);
+    }
+  }
+
+  private void offer(double time, EnclosedRaycastSpace.LineSegmentRef segment, double nx,
+      double ny) {
+    if (time < bestTime) {
+      bestTime = time;
+      best = segment;
+      bestNx = nx;
+      bestNy = ny;
+    }
+  }
+
+  private void testWall(EnclosedRaycastSpace.LineSegmentRef segment) {
+    LineSegment ls = segment.lineSegment();
+    double ax = ls.p1().x();
+    double ay = ls.p1().y();
+    double bx = ls.p2().x();
+    double by = ls.p2().y();
+    double ex = bx - ax;
+    double ey = by - ay;
+    double length = ls.length();
+
+    // The side: signed distance from the wall's line, with the normal flipped towards the circle.
+    double nx = -ey / length;
+    double ny = ex / length;
+    double s0 = nx * (ox - ax) + ny * (oy - ay);
+    if (s0 < 0) {
+      nx = -nx;
+      ny = -ny;
+      s0 = -s0;
+    }
+    double approach = nx * dx + ny * dy;
+    if (s0 < radius) {
+      double u = ((ox - ax) * ex + (oy - ay) * ey) / (length * length);
+      if (u >= 0 && u <= 1 && approach < 0) {
+        offer(0, segment, nx, ny);
+      }
+    } else if (approach < 0) {
+      double t = (radius - s0) / approach;
+      if (t <= 1) {
+        double u = ((ox + t * dx - ax) * ex + (oy + t * dy - ay) * ey) / (length * length);
+        if (u >= 0 && u <= 1) {
+          offer(t, segment, nx, ny);
+        }
+      }
+    }
+
+    testEnd(segment, ax, ay);
+    testEnd(segment, bx, by);
+  }
+
+  // The round cap at one end of a wall.
+  private void testEnd(EnclosedRaycastSpace.LineSegmentRef segment, double x, double y) {
+    double fx = ox - x;
+    double fy = oy - y;
+    double a = dx * dx + dy * dy;
+    double b = fx * dx + fy * dy;
+    double c = fx * fx + fy * fy - radius * radius;
+    if (b >= 0 || a == 0) {
+      // Not getting any closer.
+      return;
+    }
+    if (c < 0) {
+      double distance = Math.sqrt(fx * fx + fy * fy);
+      if (distance > 0) {
+        offer(0, segment, fx / distance, fy / distance);
+      }
+      return;
+    }
+
+    double discriminant = b * b - a * c;
+    if (discriminant < 0) {
+      return;
+    }
+    double t = (-b - Math.sqrt(discriminant)) / a;
+    if (t <= 1) {
+      offer(t, segment, (fx + t * dx) / radius, (fy + t * dy) / radius);
+    }
+  }
+}
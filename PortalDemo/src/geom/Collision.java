@@ -0,0 +1,23 @@
+package geom;
+
+import com.google.auto.value.AutoValue;
+
+// The first thing a circle moving through a space runs into: a wall that stops it, or a portal its
+// center passes through.
+@AutoValue
+public abstract class Collision {
+  // How far along the movement it happens, from 0 to 1.
+  public abstract double time();
+  public abstract EnclosedRaycastSpace.LineSegmentRef segmentRef();
+  // The unit vector from the wall to the circle's center as they touch. Zero for portals.
+  public abstract Vector normal();
+
+  public boolean isPortal() {
+    return segmentRef().hasPortalLink();
+  }
+
+  static Collision create(double time, EnclosedRaycastSpace.LineSegmentRef segmentRef,
+      Vector normal) {
+    return new AutoValue_Collision(time, segmentRef, normal);
+  }
+}
@@ -7,6 +7,7 @@ import java.awt.Graphics2D;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.NoninvertibleTransformException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -25,6 +26,7 @@ public final class EnclosedRaycastSpace {
   public static final class PolygonRef {
     private final EnclosedRaycastSpace parent;
     private final Polygon polygon;
+    private final int packedOffset;
     private final Map<Integer, PortalLink> portalLinks = new HashMap<>();
 
     private final ImmutableList<PointRef> pointRefs;
@@ -33,6 +35,7 @@ public final class EnclosedRaycastSpace {
     private PolygonRef(EnclosedRaycastSpace parent, Polygon polygon) {
       this.parent = parent;
       this.polygon = polygon;
+      this.packedOffset = parent.numPackedPoints;
       this.lineSegmentRefs = IntStream.range(0, polygon.numPoints())
           .mapToObj(i -> new LineSegmentRef(this, i)).collect(ImmutableList.toImmutableList());
       this.pointRefs = IntStream.range(0, polygon.numPoints()).mapToObj(i -> new PointRef(this, i))
@@ -94,6 +97,15 @@ public final class EnclosedRaycastSpace {
       return parent.polygon().lineSegment(index);
     }
 
+    public PolygonRef polygonRef() {
+      return parent;
+    }
+
+    // This segment's index in its polygon, as taken by PolygonRef.lineSegmentRef().
+    public int index() {
+      return index;
+    }
+
     public PointRef p1() {
       return parent.pointRef(index == 0 ? (parent.polygon().numPoints() - 1) : (index - 1));
     }
@@ -113,6 +125,12 @@ public final class EnclosedRaycastSpace {
     public boolean containsPointRef(PointRef pointRef) {
       return p1().equals(pointRef) || p2().equals(pointRef);
     }
+
+    // This segment's index among all of the space's segments, which matches the packed index of
+    // its second point.
+    int packedIndex() {
+      return parent.packedOffset + index;
+    }
   }
 
   public static final class PortalLink {
@@ -121,6 +139,7 @@ public final class EnclosedRaycastSpace {
 
     private final LineSegmentRef source;
     private final LineSegmentRef destination;
+    private final boolean flipped;
     private final Angle rotation;
     private final AffineTransform tx;
     private final AffineTransform inv;
@@ -128,6 +147,7 @@ public final class EnclosedRaycastSpace {
     private PortalLink(LineSegmentRef source, LineSegmentRef destination, boolean flip) {
       this.source = source;
       this.destination = destination;
+      this.flipped = flip;
 
       LineSegment src = source.lineSegment();
       LineSegment dst = destination.lineSegment();
@@ -153,11 +173,20 @@ public final class EnclosedRaycastSpace {
     public LineSegmentRef destSegmentRef() {
       return destination;
     }
+
+    LineSegmentRef srcSegmentRef() {
+      return source;
+    }
     
     public EnclosedRaycastSpace destSpace() {
       return destination.parent.parent;
     }
 
+    // Whether this was made by createFlippedPortal().
+    public boolean flipped() {
+      return flipped;
+    }
+
     public Angle rotation() {
       return rotation;
     }
@@ -169,6 +198,16 @@ public final class EnclosedRaycastSpace {
     public AffineTransform invTransform() {
       return new AffineTransform(inv);
     }
+
+    // Concatenates invTransform() onto `tx`, without copying it first.
+    public void concatenateInvTransform(AffineTransform tx) {
+      tx.concatenate(inv);
+    }
+
+    // Transforms packed points (x0, y0, x1, y1, ...) in place without copying the transform.
+    public void transform(double[] points, int numPoints) {
+      tx.transform(points, 0, points, 0, numPoints);
+    }
   }
 
   private final Polygon exteriorPolygon;
@@ -176,11 +215,76 @@ public final class EnclosedRaycastSpace {
   private final Renderer renderer;
   private final List<Polygon> interiorRaycastPolygons = new ArrayList<>();
   private final List<PolygonRef> interiorRaycastPolygonRefs = new ArrayList<>();
+  private final SegmentGrid segmentGrid;
+  // Built on first use, and dropped whenever a portal is added.
+  private PortalIndex portalIndex = null;
+  private PotentiallyVisibleSet potentiallyVisibleSet = null;
+
+  // Every point of every polygon, exterior polygon first, as x0, y0, x1, y1, ...
+  // Along with the offset and size of the polygon each point belongs to, this is enough for
+  // TraceKernel to walk the space's geometry without touching any Refs.
+  // The arrays may be longer than numPackedPoints.
+  private double[] packedPoints = new double[0];
+  private int[] packedPolygonOffsets = new int[0];
+  private int[] packedPolygonSizes = new int[0];
+  private LineSegmentRef[] packedSegmentRefs = new LineSegmentRef[0];
+  private int numPackedPoints = 0;
 
   public EnclosedRaycastSpace(Polygon exteriorPolygon, Renderer renderer) {
     this.exteriorPolygon = checkNotNull(exteriorPolygon);
     this.exteriorPolygonRef = new PolygonRef(this, exteriorPolygon);
     this.renderer = checkNotNull(renderer);
+    this.segmentGrid = SegmentGrid.forBounds(exteriorPolygon.boundingRect());
+    exteriorPolygonRef.lineSegmentRefs().forEach(segmentGrid::add);
+    pack(exteriorPolygonRef);
+  }
+
+  private void pack(PolygonRef ref) {
+    int size = ref.polygon().numPoints();
+    int newSize = numPackedPoints + size;
+    // Grown geometrically, so that building a space a polygon at a time doesn't copy it each time.
+    if (newSize > packedSegmentRefs.length) {
+      int capacity = Math.max(newSize, 2 * packedSegmentRefs.length);
+      packedPoints = Arrays.copyOf(packedPoints, 2 * capacity);
+      packedPolygonOffsets = Arrays.copyOf(packedPolygonOffsets, capacity);
+      packedPolygonSizes = Arrays.copyOf(packedPolygonSizes, capacity);
+      packedSegmentRefs = Arrays.copyOf(packedSegmentRefs, capacity);
+    }
+    for (int i = 0; i < size; i++) {
+      int index = numPackedPoints + i;
+      packedPoints[2 * index] = ref.polygon().point(i).x();
+      packedPoints[2 * index + 1] = ref.polygon().point(i).y();
+      packedPolygonOffsets[index] = numPackedPoints;
+      packedPolygonSizes[index] = size;
+      packedSegmentRefs[index] = ref.lineSegmentRef(i);
+    }
+    numPackedPoints = newSize;
+  }
+
+  int numPackedPoints() {
+    return numPackedPoints;
+  }
+
+  // The packed coordinates, indexed by 2 * point and 2 * point + 1. Not to be modified.
+  double[] packedPoints() {
+    return packedPoints;
+  }
+
+  // The packed index of the point preceding `point` on its polygon, which is also the first point
+  // of segment `point`.
+  int packedPrevPoint(int point) {
+    int offset = packedPolygonOffsets[point];
+    return offset + (point - offset + packedPolygonSizes[point] - 1) % packedPolygonSizes[point];
+  }
+
+  // The packed index of the segment following `point` on its polygon.
+  int packedNextSegment(int point) {
+    int offset = packedPolygonOffsets[point];
+    return offset + (point - offset + 1) % packedPolygonSizes[point];
+  }
+
+  LineSegmentRef packedSegmentRef(int segment) {
+    return packedSegmentRefs[segment];
   }
 
   public static void createPortal(LineSegmentRef a, LineSegmentRef b) {
@@ -206,6 +310,8 @@ public final class EnclosedRaycastSpace {
 
     a.parent.portalLinks.put(a.index, new PortalLink(a, b, flip));
     b.parent.portalLinks.put(b.index, new PortalLink(b, a, flip));
+    a.parent.parent.portalIndex = null;
+    b.parent.parent.portalIndex = null;
   }
 
   public Polygon exteriorPolygon() {
@@ -228,14 +334,71 @@ public final class EnclosedRaycastSpace {
     return renderer;
   }
 
-  public Optional<PortalLink> intersectingPortalLinks(LineSegment movementVector) {
-    if (movementVector.lengthSquared() == 0.0) {
-      return Optional.empty();
-    }
+  // Offers every segment that might be hit by the ray to `search`, nearest cells first.
+  void castRay(double ox, double oy, double dx, double dy, SegmentGrid.RaySearch search) {
+    segmentGrid.castRay(ox, oy, dx, dy, search);
+  }
+
+  SegmentGrid segmentGrid() {
+    return segmentGrid;
+  }
 
+  ImmutableList<PortalLink> portalLinks() {
     return polygonRefs().flatMap(p -> p.portalLinks.values().stream())
-        .filter(pl -> LineSegment.intersection(movementVector, pl.srcSegment()).isPresent())
-        .findFirst();
+        .collect(ImmutableList.toImmutableList());
+  }
+
+  // Null until PotentiallyVisibleSet.build() covers this space.
+  PotentiallyVisibleSet potentiallyVisibleSet() {
+    return potentiallyVisibleSet;
+  }
+
+  void setPotentiallyVisibleSet(PotentiallyVisibleSet potentiallyVisibleSet) {
+    this.potentiallyVisibleSet = potentiallyVisibleSet;
+  }
+
+  public ImmutableSet<PortalLink> portalLinksWithin(Point p, double distance) {
+    double distanceSquared = distance * distance;
+    ImmutableSet.Builder<PortalLink> builder = ImmutableSet.builder();
+    segmentGrid.forEachNear(p, distance, ls -> {
+      if (ls.hasPortalLink()
+          && LineSegment.distanceSquared(ls.lineSegment(), p) <= distanceSquared) {
+        builder.add(ls.portalLink());
+      }
+    });
+    return builder.build();
+  }
+
+  // The first wall a circle of `radius` hits moving from `origin` by `delta`, or the first portal
+  // its center crosses, whichever is sooner. Only segments in grid cells along the way are tested.
+  public Optional<Collision> sweepCircle(Point origin, Vector delta, double radius) {
+    CircleSweep sweep = new CircleSweep(origin, delta, radius);
+    segmentGrid.forEachNear(
+        Point.create(origin.x() + delta.dx() / 2, origin.y() + delta.dy() / 2),
+        Math.max(Math.abs(delta.dx()), Math.abs(delta.dy())) / 2 + radius, sweep);
+    Optional<Collision> wall = sweep.collision();
+
+    ImmutableList<PortalCrossing> crossings =
+        portalCrossings(LineSegment.create(origin, origin.translate(delta)));
+    if (crossings.isEmpty()
+        || (wall.isPresent() && wall.get().time() < crossings.get(0).time())) {
+      return wall;
+    }
+    return Optional.of(Collision.create(crossings.get(0).time(),
+        crossings.get(0).portalLink().srcSegmentRef(), Vector.zero()));
+  }
+
+  // Every portal `movement` passes through, in the order it passes through them. Only portals in
+  // grid cells along the way are tested.
+  public ImmutableList<PortalCrossing> portalCrossings(LineSegment movement) {
+    // Threads racing to build the index build the same one, and a PortalIndex is safe to share
+    // however it's published, since all its fields are final.
+    PortalIndex index = portalIndex;
+    if (index == null) {
+      index = new PortalIndex(exteriorPolygon.boundingRect(), portalLinks());
+      portalIndex = index;
+    }
+    return index.crossings(movement);
   }
 
   public void debugRenderPortals(Graphics2D g2d) {
@@ -253,6 +416,8 @@ public final class EnclosedRaycastSpace {
     
     PolygonRef ref = new PolygonRef(this, polygon);
     interiorRaycastPolygonRefs.add(ref);
+    ref.lineSegmentRefs().forEach(segmentGrid::add);
+    pack(ref);
     return ref;
   }
 }
@@ -24,28 +24,16 @@ public abstract class LineSegment {
     return Point.create((p1().x() + p2().x()) / 2.0, (p1().y() + p2().y()) / 2.0);
   }
   
-  // 'Flat' lines (vertical or horizontal) are likely not to match exactly, so we allow some wiggle room.
-  private static final double CONTAINMENT_DELTA = 1e-7;
-  
-  // Assuming `p` is on `line()`, determine if it's on the segment.
-  public final boolean containsLinePoint(Point p) {
-    if (p1().x() < p2().x()) {
-      if (p.x() + CONTAINMENT_DELTA < p1().x() || p.x() - CONTAINMENT_DELTA > p2().x()) {
-        return false;
-      }
-    } else if (p.x() + CONTAINMENT_DELTA < p2().x() || p.x() - CONTAINMENT_DELTA > p1().x()) {
-      return false;
-    }
-    
-    if (p1().y() < p2().y()) {
-      if (p.y() + CONTAINMENT_DELTA < p1().y() || p.y() - CONTAINMENT_DELTA > p2().y()) {
-        return false;
-      }
-    } else if (p.y() + CONTAINMENT_DELTA < p2().y() || p.y() - CONTAINMENT_DELTA > p1().y()) {
-      return false;
-    }
-    
-    return true;
+  // Whether `p` lies on the segment, decided exactly.
+  public final boolean contains(Point p) {
+    return Predicates.orientation(p1(), p2(), p) == 0 && withinBounds(p);
+  }
+
+  // Whether `p` is in the segment's bounding box, which for a point on `line()` means it's on the
+  // segment.
+  private boolean withinBounds(Point p) {
+    return p.x() >= Math.min(p1().x(), p2().x()) && p.x() <= Math.max(p1().x(), p2().x())
+        && p.y() >= Math.min(p1().y(), p2().y()) && p.y() <= Math.max(p1().y(), p2().y());
   }
   
   private LineSegment reversed = null;
@@ -57,10 +45,84 @@ public abstract class LineSegment {
     return reversed;
   }
   
+  // Whether the segments share a point, endpoints included, decided exactly.
+  public static boolean intersects(LineSegment s1, LineSegment s2) {
+    int o1 = Predicates.orientation(s1.p1(), s1.p2(), s2.p1());
+    int o2 = Predicates.orientation(s1.p1(), s1.p2(), s2.p2());
+    int o3 = Predicates.orientation(s2.p1(), s2.p2(), s1.p1());
+    int o4 = Predicates.orientation(s2.p1(), s2.p2(), s1.p2());
+    return intersects(s1, s2, o1, o2, o3, o4);
+  }
+
+  private static boolean intersects(LineSegment s1, LineSegment s2, int o1, int o2, int o3,
+      int o4) {
+    if (o1 * o2 > 0 || o3 * o4 > 0) {
+      return false;
+    }
+    if (o1 == 0 && o2 == 0) {
+      // Collinear, so they meet if they overlap along the line.
+      return s1.withinBounds(s2.p1()) || s1.withinBounds(s2.p2()) || s2.withinBounds(s1.p1());
+    }
+    return true;
+  }
+
+  // A point the segments share, if any. Whether they meet is decided exactly; the point itself is
+  // exact if they meet at an endpoint, and otherwise rounded onto `s1`.
   public static Optional<Point> intersection(LineSegment s1, LineSegment s2) {
-    return Line.intersection(s1.line(), s2.line())
-        .filter(s1::containsLinePoint)
-        .filter(s2::containsLinePoint);
+    int o1 = Predicates.orientation(s1.p1(), s1.p2(), s2.p1());
+    int o2 = Predicates.orientation(s1.p1(), s1.p2(), s2.p2());
+    int o3 = Predicates.orientation(s2.p1(), s2.p2(), s1.p1());
+    int o4 = Predicates.orientation(s2.p1(), s2.p2(), s1.p2());
+    if (!intersects(s1, s2, o1, o2, o3, o4)) {
+      return Optional.empty();
+    }
+
+    if (o1 == 0 && o2 == 0) {
+      return Optional.of(s1.withinBounds(s2.p1()) ? s2.p1()
+          : s1.withinBounds(s2.p2()) ? s2.p2() : s1.p1());
+    } else if (o1 == 0) {
+      return Optional.of(s2.p1());
+    } else if (o2 == 0) {
+      return Optional.of(s2.p2());
+    } else if (o3 == 0) {
+      return Optional.of(s1.p1());
+    } else if (o4 == 0) {
+      return Optional.of(s1.p2());
+    }
+
+    // A proper crossing, so the segments aren't parallel.
+    double dx1 = s1.p2().x() - s1.p1().x();
+    double dy1 = s1.p2().y() - s1.p1().y();
+    double dx2 = s2.p2().x() - s2.p1().x();
+    double dy2 = s2.p2().y() - s2.p1().y();
+    double t = ((s2.p1().x() - s1.p1().x()) * dy2 - (s2.p1().y() - s1.p1().y()) * dx2)
+        / (dx1 * dy2 - dy1 * dx2);
+    t = t > 0 ? Math.min(t, 1) : 0;
+    return Optional.of(Point.create(s1.p1().x() + t * dx1, s1.p1().y() + t * dy1));
+  }
+  
+  public static double distanceSquared(LineSegment segment, Point p) {
+    return distanceSquared(segment.p1().x(), segment.p1().y(), segment.p2().x(),
+        segment.p2().y(), p.x(), p.y());
+  }
+
+  public static double distanceSquared(LineSegment s1, LineSegment s2) {
+    if (intersects(s1, s2)) {
+      return 0.0;
+    }
+    return Math.min(Math.min(distanceSquared(s1, s2.p1()), distanceSquared(s1, s2.p2())),
+        Math.min(distanceSquared(s2, s1.p1()), distanceSquared(s2, s1.p2())));
+  }
+
+  static double distanceSquared(double x1, double y1, double x2, double y2, double px,
+      double py) {
+    double dx = x2 - x1;
+    double dy = y2 - y1;
+    double t = ((px - x1) * dx + (py - y1) * dy) / (dx * dx + dy * dy);
+    t = Math.max(0, Math.min(1, t));
+    double ex = px - (x1 + t * dx);
+    double ey = py - (y1 + t * dy);
+    return ex * ex + ey * ey;
   }
   
   @Memoized
@@ -0,0 +1,15 @@
+package geom;
+
+import com.google.auto.value.AutoValue;
+
+// A movement passing through a portal.
+@AutoValue
+public abstract class PortalCrossing {
+  // How far along the movement it happens, from 0 to 1.
+  public abstract double time();
+  public abstract EnclosedRaycastSpace.PortalLink portalLink();
+
+  static PortalCrossing create(double time, EnclosedRaycastSpace.PortalLink portalLink) {
+    return new AutoValue_PortalCrossing(time, portalLink);
+  }
+}
@@ -0,0 +1,161 @@
+package geom;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import com.google.common.collect.ImmutableList;
+
+// The portals of one space, packed for movement tests: each portal's endpoints and bounding box in
+// flat arrays, and a grid listing the portals whose boxes overlap each cell.
+//
+// Portals are far fewer than walls, so the cells are coarser than SegmentGrid's. Built once the
+// space's portals are all in place; a space rebuilds its index if another portal is added.
+final class PortalIndex {
+  private static final double CELL_SIZE = 200;
+  private static final int MAX_CELLS_PER_AXIS = 64;
+
+  private final EnclosedRaycastSpace.PortalLink[] portalLinks;
+  // x1, y1, x2, y2 of each portal's source segment.
+  private final double[] segments;
+  // minX, minY, maxX, maxY of each portal's source segment.
+  private final double[] bounds;
+
+  private final double x0;
+  private final double y0;
+  private final double cellSize;
+  private final int cols;
+  private final int rows;
+  // The portals in cell c are cellPortals[cellStarts[c]] up to cellPortals[cellStarts[c + 1]].
+  private final int[] cellStarts;
+  private final int[] cellPortals;
+
+  PortalIndex(Rectangle spaceBounds, List<EnclosedRaycastSpace.PortalLink> portalLinks) {
+    int n = portalLinks.size();
+    this.portalLinks = portalLinks.toArray(new EnclosedRaycastSpace.PortalLink[n]);
+    this.segments = new double[4 * n];
+    this.bounds = new double[4 * n];
+    for (int i = 0; i < n; i++) {
+      LineSegment ls = portalLinks.get(i).srcSegment();
+      segments[4 * i] = ls.p1().x();
+      segments[4 * i + 1] = ls.p1().y();
+      segments[4 * i + 2] = ls.p2().x();
+      segments[4 * i + 3] = ls.p2().y();
+      bounds[4 * i] = Math.min(ls.p1().x(), ls.p2().x());
+      bounds[4 * i + 1] = Math.min(ls.p1().y(), ls.p2().y());
+      bounds[4 * i + 2] = Math.max(ls.p1().x(), ls.p2().x());
+      bounds[4 * i + 3] = Math.max(ls.p1().y(), ls.p2().y());
+    }
+
+    this.x0 = spaceBounds.x1();
+    this.y0 = spaceBounds.y1();
+    this.cellSize = Math.max(CELL_SIZE,
+        Math.max(spaceBounds.width(), spaceBounds.height()) / MAX_CELLS_PER_AXIS);
+    this.cols = Math.max(1, (int) Math.ceil(spaceBounds.width() / cellSize));
+    this.rows = Math.max(1, (int) Math.ceil(spaceBounds.height() / cellSize));
+
+    // Count each cell's portals, then fill them in.
+    this.cellStarts = new int[cols * rows + 1];
+    for (int i = 0; i < n; i++) {
+      for (int r = row(bounds[4 * i + 1]); r <= row(bounds[4 * i + 3]); r++) {
+        for (int c = col(bounds[4 * i]); c <= col(bounds[4 * i + 2]); c++) {
+          cellStarts[r * cols + c + 1]++;
+        }
+      }
+    }
+    for (int cell = 0; cell < cols * rows; cell++) {
+      cellStarts[cell + 1] += cellStarts[cell];
+    }
+    this.cellPortals = new int[cellStarts[cols * rows]];
+    int[] filled = new int[cols * rows];
+    for (int i = 0; i < n; i++) {
+      for (int r = row(bounds[4 * i + 1]); r <= row(bounds[4 * i + 3]); r++) {
+        for (int c = col(bounds[4 * i]); c <= col(bounds[4 * i + 2]); c++) {
+          int cell = r * cols + c;
+          cellPortals[cellStarts[cell] + filled[cell]++] = i;
+        }
+      }
+    }
+  }
+
+  private int col(double x) {
+    return Math.max(0, Math.min(cols - 1, (int) Math.floor((x - x0) / cellSize)));
+  }
+
+  private int row(double y) {
+    return Math.max(0, Math.min(rows - 1, (int) Math.floor((y - y0) / cellSize)));
+  }
+
+  int numPortals() {
+    return portalLinks.length;
+  }
+
+  // Every portal `movement` passes through, in the order it passes through them.
+  ImmutableList<PortalCrossing> crossings(LineSegment movement) {
+    if (portalLinks.length == 0 || movement.lengthSquared() == 0.0) {
+      return ImmutableList.of();
+    }
+
+    double minX = Math.min(movement.p1().x(), movement.p2().x());
+    double minY = Math.min(movement.p1().y(), movement.p2().y());
+    double maxX = Math.max(movement.p1().x(), movement.p2().x());
+    double maxY = Math.max(movement.p1().y(), movement.p2().y());
+
+    List<PortalCrossing> crossings = new ArrayList<>(1);
+    int c1 = col(minX);
+    int c2 = col(maxX);
+    int r1 = row(minY);
+    int r2 = row(maxY);
+    for (int r = r1; r <= r2; r++) {
+      for (int c = c1; c <= c2; c++) {
+        int cell = r * cols + c;
+        for (int j = cellStarts[cell]; j < cellStarts[cell + 1]; j++) {
+          int i = cellPortals[j];
+          // A portal in several of these cells is only tested in the first of them.
+          if (c != Math.max(c1, col(bounds[4 * i])) || r != Math.max(r1, row(bounds[4 * i + 1]))
+              || bounds[4 * i] > maxX || bounds[4 * i + 2] < minX || bounds[4 * i + 1] > maxY
+              || bounds[4 * i + 3] < minY) {
+            continue;
+          }
+          double t = crossingTime(i, movement);
+          if (t >= 0) {
+            crossings.add(PortalCrossing.create(t, portalLinks[i]));
+          }
+        }
+      }
+    }
+    if (crossings.size() > 1) {
+      crossings.sort(Comparator.comparingDouble(PortalCrossing::time));
+    }
+    return ImmutableList.copyOf(crossings);
+  }
+
+  // How far along `movement`, from 0 to 1, it crosses portal `i`, or -1 if it doesn't. Whether it
+  // crosses is decided exactly. Moving along a portal doesn't cross it.
+  private double crossingTime(int i, LineSegment movement) {
+    double ox = movement.p1().x();
+    double oy = movement.p1().y();
+    double px = movement.p2().x();
+    double py = movement.p2().y();
+    double ax = segments[4 * i];
+    double ay = segments[4 * i + 1];
+    double bx = segments[4 * i + 2];
+    double by = segments[4 * i + 3];
+    int o1 = Predicates.orientation(ox, oy, px, py, ax, ay);
+    int o2 = Predicates.orientation(ox, oy, px, py, bx, by);
+    if (o1 * o2 > 0 || (o1 == 0 && o2 == 0)) {
+      return -1;
+    }
+    int o3 = Predicates.orientation(ax, ay, bx, by, ox, oy);
+    int o4 = Predicates.orientation(ax, ay, bx, by, px, py);
+    if (o3 * o4 > 0) {
+      return -1;
+    }
+
+    double dx = px - ox;
+    double dy = py - oy;
+    double ex = bx - ax;
+    double ey = by - ay;
+    double t = ((ax - ox) * ey - (ay - oy) * ex) / (dx * ey - dy * ex);
+    return Math.max(0, Math.min(1, t));
+  }
+}
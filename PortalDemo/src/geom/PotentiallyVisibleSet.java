@@ -0,0 +1,197 @@
+package geom;
+
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+
+// For each cell of a space's segment grid, every portal that a trace of up to maxDistance() from
+// that cell might recurse through, at any depth, and every space such a trace might reach.
+//
+// The distance to a portal seen through other portals is bounded below by the distance from the
+// cell to the first portal, plus the distance from its destination to the next portal, and so on;
+// any actual sight line through the same portals is at least that long. So the sets only ever
+// include too much, and traces may use them in place of checking each portal's distance.
+//
+// Cells are built the first time a trace starts in them, so a large level only pays for the
+// cells that are actually visited. A cell with more than maxLinksPerCell() portals in reach is
+// left uncovered, and traces from it check each portal's distance instead.
+public final class PotentiallyVisibleSet {
+  private static final int DEFAULT_MAX_LINKS_PER_CELL = 1024;
+
+  @AutoValue
+  public abstract static class Cell {
+    public abstract ImmutableSet<EnclosedRaycastSpace.PortalLink> portalLinks();
+
+    public abstract ImmutableSet<EnclosedRaycastSpace> spaces();
+
+    private static Cell create(ImmutableSet<EnclosedRaycastSpace.PortalLink> portalLinks,
+        ImmutableSet<EnclosedRaycastSpace> spaces) {
+      return new AutoValue_PotentiallyVisibleSet_Cell(portalLinks, spaces);
+    }
+  }
+
+  // Marks a cell with too many portals in reach to be worth listing.
+  private static final Cell UNCOVERED = Cell.create(ImmutableSet.of(), ImmutableSet.of());
+
+  private final EnclosedRaycastSpace space;
+  private final double maxDistance;
+  private final int maxLinksPerCell;
+  private final Map<EnclosedRaycastSpace.PortalLink, Map<EnclosedRaycastSpace.PortalLink, Double>>
+      hops;
+  // Null until built.
+  private final AtomicReferenceArray<Cell> cells;
+
+  private PotentiallyVisibleSet(EnclosedRaycastSpace space, double maxDistance,
+      int maxLinksPerCell,
+      Map<EnclosedRaycastSpace.PortalLink, Map<EnclosedRaycastSpace.PortalLink, Double>> hops) {
+    this.space = space;
+    this.maxDistance = maxDistance;
+    this.maxLinksPerCell = maxLinksPerCell;
+    this.hops = hops;
+    this.cells = new AtomicReferenceArray<>(space.segmentGrid().numCells());
+  }
+
+  public double maxDistance() {
+    return maxDistance;
+  }
+
+  public int maxLinksPerCell() {
+    return maxLinksPerCell;
+  }
+
+  // The cell containing (x, y), building it if need be, or null if it's outside the space's grid
+  // or uncovered. Safe to call from several threads; racing calls build equal cells.
+  public Cell cell(double x, double y) {
+    int i = space.segmentGrid().cellAt(x, y);
+    if (i < 0) {
+      return null;
+    }
+
+    Cell cell = cells.get(i);
+    if (cell == null) {
+      cell = buildCell(space.segmentGrid().cellBounds(i));
+      cells.lazySet(i, cell);
+    }
+    return cell == UNCOVERED ? null : cell;
+  }
+
+  // The portals a trace of `space` from `origin` might recurse through, or null if no set covers
+  // the trace.
+  static ImmutableSet<EnclosedRaycastSpace.PortalLink> portalLinksFor(EnclosedRaycastSpace space,
+      Point origin, double maxDistance) {
+    PotentiallyVisibleSet pvs = space.potentiallyVisibleSet();
+    if (pvs == null || maxDistance > pvs.maxDistance) {
+      return null;
+    }
+
+    Cell cell = pvs.cell(origin.x(), origin.y());
+    return cell == null ? null : cell.portalLinks();
+  }
+
+  // Prepares the sets for `root` and every space reachable from it through portals, and stores
+  // them with each space. Portals must not change afterwards.
+  public static void build(EnclosedRaycastSpace root, double maxDistance) {
+    build(root, maxDistance, DEFAULT_MAX_LINKS_PER_CELL);
+  }
+
+  static void build(EnclosedRaycastSpace root, double maxDistance, int maxLinksPerCell) {
+    Set<EnclosedRaycastSpace> spaces = new LinkedHashSet<>();
+    Deque<EnclosedRaycastSpace> queue = new ArrayDeque<>();
+    spaces.add(root);
+    queue.add(root);
+    while (!queue.isEmpty()) {
+      for (EnclosedRaycastSpace.PortalLink portalLink : queue.remove().portalLinks()) {
+        if (spaces.add(portalLink.destSpace())) {
+          queue.add(portalLink.destSpace());
+        }
+      }
+    }
+
+    // The shortest walk from each portal's destination to each portal beyond it.
+    Map<EnclosedRaycastSpace.PortalLink, Map<EnclosedRaycastSpace.PortalLink, Double>> hops =
+        new HashMap<>();
+    for (EnclosedRaycastSpace space : spaces) {
+      for (EnclosedRaycastSpace.PortalLink portalLink : space.portalLinks()) {
+        ImmutableMap.Builder<EnclosedRaycastSpace.PortalLink, Double> builder =
+            ImmutableMap.builder();
+        for (EnclosedRaycastSpace.PortalLink next : portalLink.destSpace().portalLinks()) {
+          if (next.srcSegmentRef() != portalLink.destSegmentRef()) {
+            builder.put(next, Math.sqrt(LineSegment.distanceSquared(
+                portalLink.destSegmentRef().lineSegment(), next.srcSegment())));
+          }
+        }
+        hops.put(portalLink, builder.build());
+      }
+    }
+
+    for (EnclosedRaycastSpace space : spaces) {
+      space.setPotentiallyVisibleSet(
+          new PotentiallyVisibleSet(space, maxDistance, maxLinksPerCell, hops));
+    }
+  }
+
+  private Cell buildCell(Rectangle bounds) {
+    // Dijkstra's over portals, from the cell, given up once too many are in reach.
+    Map<EnclosedRaycastSpace.PortalLink, Double> distances = new HashMap<>();
+    PriorityQueue<Map.Entry<EnclosedRaycastSpace.PortalLink, Double>> queue =
+        new PriorityQueue<>(Comparator.comparing(Map.Entry::getValue));
+    for (EnclosedRaycastSpace.PortalLink portalLink : space.portalLinks()) {
+      double distance = distance(bounds, portalLink.srcSegment());
+      if (distance <= maxDistance) {
+        distances.put(portalLink, distance);
+        queue.add(Maps.immutableEntry(portalLink, distance));
+      }
+    }
+
+    while (!queue.isEmpty() && distances.size() <= maxLinksPerCell) {
+      Map.Entry<EnclosedRaycastSpace.PortalLink, Double> entry = queue.remove();
+      if (entry.getValue() > distances.get(entry.getKey())) {
+        continue;
+      }
+
+      hops.get(entry.getKey()).forEach((next, hop) -> {
+        double distance = entry.getValue() + hop;
+        if (distance <= maxDistance
+            && distance < distances.getOrDefault(next, Double.POSITIVE_INFINITY)) {
+          distances.put(next, distance);
+          queue.add(Maps.immutableEntry(next, distance));
+        }
+      });
+    }
+    if (distances.size() > maxLinksPerCell) {
+      return UNCOVERED;
+    }
+
+    ImmutableSet.Builder<EnclosedRaycastSpace> spaces = ImmutableSet.builder();
+    spaces.add(space);
+    distances.keySet().forEach(pl -> spaces.add(pl.destSpace()));
+    return Cell.create(ImmutableSet.copyOf(distances.keySet()), spaces.build());
+  }
+
+  private static double distance(Rectangle bounds, LineSegment segment) {
+    if (contains(bounds, segment.p1()) || contains(bounds, segment.p2())) {
+      return 0.0;
+    }
+
+    double distanceSquared = Double.POSITIVE_INFINITY;
+    for (LineSegment edge : bounds.asPolygon().lineSegments()) {
+      distanceSquared = Math.min(distanceSquared, LineSegment.distanceSquared(edge, segment));
+    }
+    return Math.sqrt(distanceSquared);
+  }
+
+  private static boolean contains(Rectangle bounds, Point p) {
+    return p.x() >= bounds.x1() && p.x() <= bounds.x2() && p.y() >= bounds.y1()
+        && p.y() <= bounds.y2();
+  }
+}
@@ -0,0 +1,63 @@
+package geom;
+
+import java.math.BigDecimal;
+
+// Robust geometric predicates.
+//
+// Each test is evaluated in floating point first, along with a bound on its rounding error, after
+// Shewchuk's adaptive predicates. Only results too close to zero to trust are recomputed, exactly:
+// every double is a binary fraction, so BigDecimal sums and products of them never round. Either
+// way the answer is the one exact arithmetic on the inputs would give.
+public final class Predicates {
+  // Relative error bound of the floating-point orientation determinant, (3 + 16e) * e for the unit
+  // roundoff e = 2^-53.
+  private static final double ORIENTATION_ERROR_BOUND = (3 + 16 * 0x1p-53) * 0x1p-53;
+
+  private Predicates() {}
+
+  // The sign of the cross product (b - a) x (c - a): 1 if a, b, c turn counter-clockwise, -1 if
+  // they turn clockwise, and 0 if they are collinear.
+  public static int orientation(double ax, double ay, double bx, double by, double cx,
+      double cy) {
+    double detLeft = (ax - cx) * (by - cy);
+    double detRight = (ay - cy) * (bx - cx);
+    double det = detLeft - detRight;
+
+    double detSum;
+    if (detLeft > 0) {
+      if (detRight <= 0) {
+        return signum(det);
+      }
+      detSum = detLeft + detRight;
+    } else if (detLeft < 0) {
+      if (detRight >= 0) {
+        return signum(det);
+      }
+      detSum = -detLeft - detRight;
+    } else {
+      return signum(det);
+    }
+
+    if (Math.abs(det) >= ORIENTATION_ERROR_BOUND * detSum) {
+      return signum(det);
+    }
+    return exactOrientation(ax, ay, bx, by, cx, cy);
+  }
+
+  public static int orientation(Point a, Point b, Point c) {
+    return orientation(a.x(), a.y(), b.x(), b.y(), c.x(), c.y());
+  }
+
+  private static int exactOrientation(double ax, double ay, double bx, double by, double cx,
+      double cy) {
+    BigDecimal x = new BigDecimal(cx);
+    BigDecimal y = new BigDecimal(cy);
+    BigDecimal left = new BigDecimal(ax).subtract(x).multiply(new BigDecimal(by).subtract(y));
+    BigDecimal right = new BigDecimal(ay).subtract(y).multiply(new BigDecimal(bx).subtract(x));
+    return left.compareTo(right);
+  }
+
+  private static int signum(double d) {
+    return d > 0 ? 1 : d < 0 ? -1 : 0;
+  }
+}
@@ -0,0 +1,59 @@
+package geom;
+
+// Pseudo-angles: a trig-free stand-in for Angle that orders directions the same way.
+//
+// A direction's pseudo-angle is how far it points around the diamond |x| + |y| = 1, measured
+// counter-clockwise from +x, in [0, 4). Quarter turns fall exactly on integers, so a half turn is
+// exactly 2, and a pseudo-angle converts back to a direction with a few additions.
+final class PseudoAngle {
+  static final double HALF_TURN = 2.0;
+  static final double FULL_TURN = 4.0;
+
+  private PseudoAngle() {}
+
+  // The pseudo-angle of (dx, dy), which need not be normalized. Zero for the zero vector.
+  static double of(double dx, double dy) {
+    double p;
+    if (dy >= 0) {
+      if (dx >= 0) {
+        p = dx == 0 && dy == 0 ? 0 : dy / (dx + dy);
+      } else {
+        p = 1 - dx / (dy - dx);
+      }
+    } else if (dx < 0) {
+      p = 2 - dy / (-dx - dy);
+    } else {
+      p = 3 + dx / (dx - dy);
+    }
+    return p < FULL_TURN ? p : 0;
+  }
+
+  static double normalize(double p) {
+    while (p >= FULL_TURN) {
+      p -= FULL_TURN;
+    }
+    while (p < 0) {
+      p += FULL_TURN;
+    }
+    return p;
+  }
+
+  // How far counter-clockwise `p1` is from `p2`, in [0, 4).
+  static double counterClockwiseDiff(double p1, double p2) {
+    return normalize(p1 - p2);
+  }
+
+  // The pseudo-angle halfway along the counter-clockwise turn from `p1` to `p2`.
+  static double counterClockwiseMidpoint(double p1, double p2) {
+    return normalize(p1 + counterClockwiseDiff(p2, p1) / 2);
+  }
+
+  // A direction with pseudo-angle `p`, on the unit diamond rather than the unit circle.
+  static double dx(double p) {
+    return p < 2 ? 1 - p : p - 3;
+  }
+
+  static double dy(double p) {
+    return p < 1 ? p : p < 3 ? 2 - p : p - 4;
+  }
+}
@@ -2,12 +2,18 @@ package geom;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import java.awt.geom.AffineTransform;
-import java.util.Comparator;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.DoubleSummaryStatistics;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
 import java.util.function.Predicate;
-import java.util.stream.Collectors;
 import com.google.auto.value.AutoValue;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
@@ -18,7 +24,7 @@ public final class RayTrace {
 
   @AutoValue
   abstract static class RadialPointRef {
-    abstract RadialVector vector();
+    abstract double pseudoAngle();
 
     abstract EnclosedRaycastSpace.PointRef ref();
 
@@ -27,7 +33,9 @@ public final class RayTrace {
     }
 
     private static RadialPointRef create(Point origin, EnclosedRaycastSpace.PointRef dest) {
-      return new AutoValue_RayTrace_RadialPointRef(RadialVector.from(origin, dest.point()), dest);
+      double dx = dest.point().x() - origin.x();
+      double dy = dest.point().y() - origin.y();
+      return new AutoValue_RayTrace_RadialPointRef(PseudoAngle.of(dx, dy), dest);
     }
   }
 
@@ -37,7 +45,7 @@ public final class RayTrace {
 
     public abstract RayTrace rayTrace();
 
-    private static RecursiveRayTrace create(EnclosedRaycastSpace.PortalLink portalLink,
+    static RecursiveRayTrace create(EnclosedRaycastSpace.PortalLink portalLink,
         RayTrace rayTrace) {
       return new AutoValue_RayTrace_RecursiveRayTrace(portalLink, rayTrace);
     }
@@ -47,7 +55,7 @@ public final class RayTrace {
   private final Polygon scope;
   private final ImmutableList<RecursiveRayTrace> recursiveRayTraces;
 
-  private RayTrace(EnclosedRaycastSpace root, Polygon scope,
+  RayTrace(EnclosedRaycastSpace root, Polygon scope,
       ImmutableList<RecursiveRayTrace> recursiveRayTraces) {
     this.root = checkNotNull(root);
     this.scope = checkNotNull(scope);
@@ -68,26 +76,88 @@ public final class RayTrace {
 
   public static RayTrace buildRadialTrace(EnclosedRaycastSpace space, Point origin,
       double maxDistance) {
-    return buildRadialTrace(space, origin, maxDistance, null, null);
+    return buildRadialTrace(space, origin, maxDistance, TracePolicy.unbounded());
+  }
+
+  public static RayTrace buildRadialTrace(EnclosedRaycastSpace space, Point origin,
+      double maxDistance, TracePolicy policy) {
+    return buildRadialTrace(space, origin, maxDistance, null, null, policy, 0,
+        PotentiallyVisibleSet.portalLinksFor(space, origin, maxDistance), false);
+  }
+
+  // Like buildRadialTrace, but traces through portals in parallel on `pool`.
+  public static RayTrace buildRadialTrace(EnclosedRaycastSpace space, Point origin,
+      double maxDistance, TracePolicy policy, ForkJoinPool pool) {
+    ImmutableSet<EnclosedRaycastSpace.PortalLink> visiblePortalLinks =
+        PotentiallyVisibleSet.portalLinksFor(space, origin, maxDistance);
+    return pool.invoke(ForkJoinTask.adapt(() -> buildRadialTrace(space, origin, maxDistance, null,
+        null, policy, 0, visiblePortalLinks, true)));
+  }
+
+  // A trace through a portal. When tracing in parallel, it's forked as soon as the portal is
+  // found and joined once the parent's polygon is complete.
+  private static final class ChildTrace extends RecursiveTask<RayTrace> {
+    private static final long serialVersionUID = 1L;
+
+    private final EnclosedRaycastSpace.PortalLink portalLink;
+    private final Point origin;
+    private final double maxDistance;
+    private final LineSegment occlusionWindow;
+    private final TracePolicy policy;
+    private final int depth;
+    private final ImmutableSet<EnclosedRaycastSpace.PortalLink> visiblePortalLinks;
+    private final boolean parallel;
+
+    private ChildTrace(EnclosedRaycastSpace.PortalLink portalLink, Point origin,
+        double maxDistance, LineSegment occlusionWindow, TracePolicy policy, int depth,
+        ImmutableSet<EnclosedRaycastSpace.PortalLink> visiblePortalLinks, boolean parallel) {
+      this.portalLink = portalLink;
+      this.origin = origin;
+      this.maxDistance = maxDistance;
+      this.occlusionWindow = occlusionWindow;
+      this.policy = policy;
+      this.depth = depth;
+      this.visiblePortalLinks = visiblePortalLinks;
+      this.parallel = parallel;
+    }
+
+    @Override
+    protected RayTrace compute() {
+      return buildRadialTrace(portalLink.destSpace(), origin, maxDistance, occlusionWindow,
+          portalLink.destSegmentRef(), policy, depth, visiblePortalLinks, parallel);
+    }
   }
 
   private static class RecursivePolyBuilder {
     private final Point origin;
     private final double maxDistance;
     private final double maxDistanceSquared;
+    private final ImmutableSet<EnclosedRaycastSpace.PortalLink> visiblePortalLinks;
+    private final ImmutableSet<EnclosedRaycastSpace.PortalLink> portalLinksInRange;
+    private final TracePolicy policy;
+    private final int depth;
+    private final boolean parallel;
     private final Polygon.Builder polyBuilder = Polygon.builder();
-    private final ImmutableList.Builder<RecursiveRayTrace> recursiveRayTracesBuilder =
-        ImmutableList.builder();
+    private final List<ChildTrace> childTraces = new ArrayList<>();
 
     private Point firstPoint = null;
     private ImmutableSet<EnclosedRaycastSpace.PortalLink> firstPortalLinks = ImmutableSet.of();
     private Point prevPoint = null;
     private ImmutableSet<EnclosedRaycastSpace.PortalLink> prevPortalLinks = ImmutableSet.of();
 
-    public RecursivePolyBuilder(Point origin, double maxDistance) {
+    public RecursivePolyBuilder(EnclosedRaycastSpace space, Point origin, double maxDistance,
+        TracePolicy policy, int depth,
+        ImmutableSet<EnclosedRaycastSpace.PortalLink> visiblePortalLinks, boolean parallel) {
       this.origin = origin;
       this.maxDistance = maxDistance;
       this.maxDistanceSquared = maxDistance * maxDistance;
+      // The potentially visible set, if there is one, covers the whole tree from the root's cell.
+      this.visiblePortalLinks = visiblePortalLinks;
+      this.portalLinksInRange = visiblePortalLinks != null ? visiblePortalLinks
+          : space.portalLinksWithin(origin, maxDistance);
+      this.policy = policy;
+      this.depth = depth;
+      this.parallel = parallel;
     }
 
     public void addPoint(Point p) {
@@ -129,27 +199,30 @@ public final class RayTrace {
 
       Optional<EnclosedRaycastSpace.PortalLink> portalLinkOpt =
           Sets.intersection(portalLinksA, portalLinksB).stream().findFirst();
-      if (!portalLinkOpt.isPresent()) {
+      if (!portalLinkOpt.isPresent() || !portalLinksInRange.contains(portalLinkOpt.get())) {
         return;
       }
 
-      Line l = Line.from(a, b);
-      if (Point.distSquared(origin, a) > maxDistanceSquared
-          && Point.distSquared(origin, b) > maxDistanceSquared
-          && (Line.distanceSquared(l, origin) > maxDistanceSquared
-              || Point.distSquared(a, b) < maxDistanceSquared)) {
+      if (LineSegment.distanceSquared(a.x(), a.y(), b.x(), b.y(), origin.x(),
+          origin.y()) > maxDistanceSquared) {
         // Ignore.
         return;
       }
 
       EnclosedRaycastSpace.PortalLink portalLink = portalLinkOpt.get();
+      if (!policy.admits(portalLink, depth + 1, origin.x(), origin.y(), a.x(), a.y(), b.x(),
+          b.y(), maxDistance)) {
+        return;
+      }
+
       AffineTransform tx = portalLink.transform();
-      try {
-        RayTrace rayTrace =
-            buildRadialTrace(portalLink.destSpace(), origin.transform(tx), maxDistance,
-                LineSegment.create(a.transform(tx), b.transform(tx)), portalLink.destSegmentRef());
-        recursiveRayTracesBuilder.add(RecursiveRayTrace.create(portalLink, rayTrace));
-      } catch (Exception ignore) {}
+      ChildTrace childTrace = new ChildTrace(portalLink, origin.transform(tx), maxDistance,
+          LineSegment.create(a.transform(tx), b.transform(tx)), policy, depth + 1,
+          visiblePortalLinks, parallel);
+      if (parallel) {
+        childTrace.fork();
+      }
+      childTraces.add(childTrace);
     }
     
     public Point lastPoint() {
@@ -162,232 +235,391 @@ public final class RayTrace {
 
     public ImmutableList<RecursiveRayTrace> buildRecursiveRayTraces() {
       maybeRecursiveRayTrace(prevPoint, prevPortalLinks, firstPoint, firstPortalLinks);
+
+      ImmutableList.Builder<RecursiveRayTrace> recursiveRayTracesBuilder = ImmutableList.builder();
+      for (ChildTrace childTrace : childTraces) {
+        try {
+          RayTrace rayTrace = parallel ? childTrace.join() : childTrace.invoke();
+          recursiveRayTracesBuilder.add(RecursiveRayTrace.create(childTrace.portalLink, rayTrace));
+        } catch (Exception ignore) {}
+      }
       return recursiveRayTracesBuilder.build();
     }
   }
 
+  // How far the ray from (ox, oy) along (dx, dy) travels, in multiples of (dx, dy), to reach the
+  // line through (x1, y1) and (x2, y2). Shared with TraceKernel, which must agree with this class
+  // to the last bit.
+  static double rayDistance(double ox, double oy, double dx, double dy, double x1, double y1,
+      double x2, double y2) {
+    double sx = x2 - x1;
+    double sy = y2 - y1;
+    return ((x1 - ox) * sy - (y1 - oy) * sx) / (dx * sy - dy * sx);
+  }
+
+  // Which of segments a and b is nearer the origin, wherever rays from it cross both: -1 for a, 1
+  // for b, or 0 if they cross or lie on a common line. Neither may be seen edge-on. One segment
+  // lies wholly on one side of the other's line, and is nearer if that's the origin's side.
+  static int nearerSegment(double ox, double oy, double a1x, double a1y, double a2x, double a2y,
+      double b1x, double b1y, double b2x, double b2y) {
+    int b1 = Predicates.orientation(a1x, a1y, a2x, a2y, b1x, b1y);
+    int b2 = Predicates.orientation(a1x, a1y, a2x, a2y, b2x, b2y);
+    if (b1 != -b2 || b1 == 0) {
+      int side = b1 != 0 ? b1 : b2;
+      return side == 0 ? 0
+          : side == Predicates.orientation(a1x, a1y, a2x, a2y, ox, oy) ? 1 : -1;
+    }
+
+    int a1 = Predicates.orientation(b1x, b1y, b2x, b2y, a1x, a1y);
+    int a2 = Predicates.orientation(b1x, b1y, b2x, b2y, a2x, a2y);
+    if (a1 != -a2 || a1 == 0) {
+      int side = a1 != 0 ? a1 : a2;
+      return side == 0 ? 0
+          : side == Predicates.orientation(b1x, b1y, b2x, b2y, ox, oy) ? -1 : 1;
+    }
+    return 0;
+  }
+
+  // Whether (px, py) and (qx, qy) lie exactly on the same ray from the origin.
+  static boolean onSameRay(double ox, double oy, double px, double py, double qx, double qy) {
+    return Predicates.orientation(ox, oy, px, py, qx, qy) == 0
+        && (px - ox) * (qx - ox) + (py - oy) * (qy - oy) > 0;
+  }
+
+  // Which half-turn counter-clockwise from the ray through (sx, sy) the direction to (px, py) is
+  // in: 0 for [0, 180) degrees, 1 for [180, 360). The sign of the dot product is exact for points
+  // on a line through the origin.
+  private static int half(double ox, double oy, double sx, double sy, double px, double py) {
+    int side = Predicates.orientation(ox, oy, sx, sy, px, py);
+    if (side != 0) {
+      return side > 0 ? 0 : 1;
+    }
+    return (px - ox) * (sx - ox) + (py - oy) * (sy - oy) > 0 ? 0 : 1;
+  }
+
+  // The order in which a counter-clockwise sweep starting at the ray through (sx, sy) meets
+  // points: by direction, decided exactly, then farthest first along a common ray. Negative if
+  // (px, py) comes first, 0 only for equal points. Shared with TraceKernel.
+  static int compareSweepOrder(double ox, double oy, double sx, double sy, double px, double py,
+      double qx, double qy) {
+    int c = compareDirections(ox, oy, sx, sy, px, py, qx, qy);
+    if (c != 0) {
+      return c;
+    }
+    if (px != qx) {
+      return px > ox ? Double.compare(qx, px) : Double.compare(px, qx);
+    }
+    return py > oy ? Double.compare(qy, py) : Double.compare(py, qy);
+  }
+
+  // Like compareSweepOrder, but 0 for any two points on the same ray.
+  static int compareDirections(double ox, double oy, double sx, double sy, double px, double py,
+      double qx, double qy) {
+    int c = Integer.compare(half(ox, oy, sx, sy, px, py), half(ox, oy, sx, sy, qx, qy));
+    return c != 0 ? c : -Predicates.orientation(ox, oy, px, py, qx, qy);
+  }
+
+  // A segment taking part in the sweep, with its endpoints in the order the sweep meets them.
+  private static final class SweepSegment {
+    private final EnclosedRaycastSpace.LineSegmentRef ref;
+    private final EnclosedRaycastSpace.PointRef start;
+    private final EnclosedRaycastSpace.PointRef end;
+    // Whether the segment starts on the starting ray, in which case it's seeded rather than added
+    // at its start.
+    private final boolean startsOnRay;
+    private final int id;
+
+    private SweepSegment(EnclosedRaycastSpace.LineSegmentRef ref,
+        EnclosedRaycastSpace.PointRef start, EnclosedRaycastSpace.PointRef end,
+        boolean startsOnRay, int id) {
+      this.ref = ref;
+      this.start = start;
+      this.end = end;
+      this.startsOnRay = startsOnRay;
+      this.id = id;
+    }
+  }
+
+  // The angular sweep state: every segment crossing the current ray, ordered by distance along it,
+  // so that the nearest wall is always `active.first()`.
+  //
+  // Non-intersecting segments never swap order while they overlap angularly, so the order doesn't
+  // depend on where the sweep currently is, which keeps the tree valid as the ray advances. Since
+  // points are swept in exact order, every two segments in the tree either overlap angularly,
+  // where nearerSegment() orders them exactly, or one ends on the current ray at or short of where
+  // the other starts, and is the nearer. Only segments that cross, or lie on a common line, are
+  // left to their ids, and a ray can only meet the latter together at a shared endpoint.
+  private static final class Sweep {
+    private final Point origin;
+    // A point on the starting ray.
+    private final Point from;
+    private final EnclosedRaycastSpace.LineSegmentRef portal;
+    private final Map<EnclosedRaycastSpace.LineSegmentRef, Optional<SweepSegment>> segments =
+        new HashMap<>();
+    private final TreeSet<SweepSegment> active = new TreeSet<>(this::compare);
+
+    private Sweep(Point origin, Point from, EnclosedRaycastSpace.LineSegmentRef portal) {
+      this.origin = origin;
+      this.from = from;
+      this.portal = portal;
+    }
+
+    private int compareDirections(Point p, Point q) {
+      return RayTrace.compareDirections(origin.x(), origin.y(), from.x(), from.y(), p.x(), p.y(),
+          q.x(), q.y());
+    }
+
+    private boolean onStartingRay(Point p) {
+      return onSameRay(origin.x(), origin.y(), from.x(), from.y(), p.x(), p.y());
+    }
+
+    // Whether `s` is in the sweep at its start: whether it crosses the starting ray, or starts on
+    // it.
+    private boolean crossesStartingRay(SweepSegment s) {
+      return s.startsOnRay || (compareDirections(s.end.point(), s.start.point()) < 0
+          && !onStartingRay(s.end.point()));
+    }
+
+    // Returns the sweep view of `ref`, or empty for the excluded portal and for segments seen
+    // edge-on, which never occlude anything.
+    private Optional<SweepSegment> segment(EnclosedRaycastSpace.LineSegmentRef ref) {
+      return segments.computeIfAbsent(ref, r -> {
+        if (r == portal) {
+          return Optional.empty();
+        }
+
+        EnclosedRaycastSpace.PointRef start = r.p1();
+        EnclosedRaycastSpace.PointRef end = r.p2();
+        int orientation = Predicates.orientation(origin, start.point(), end.point());
+        if (orientation == 0) {
+          return Optional.empty();
+        } else if (orientation < 0) {
+          start = r.p2();
+          end = r.p1();
+        }
+
+        return Optional.of(new SweepSegment(r, start, end, onStartingRay(start.point()),
+            segments.size()));
+      });
+    }
+
+    // Where the ray from the origin through `p` meets `s`.
+    private Point intersection(SweepSegment s, Point p) {
+      LineSegment ls = s.ref.lineSegment();
+      double dx = p.x() - origin.x();
+      double dy = p.y() - origin.y();
+      double dist = rayDistance(origin.x(), origin.y(), dx, dy, ls.p1().x(), ls.p1().y(),
+          ls.p2().x(), ls.p2().y());
+      return Point.create(origin.x() + dist * dx, origin.y() + dist * dy);
+    }
+
+    private int compare(SweepSegment a, SweepSegment b) {
+      if (a == b) {
+        return 0;
+      }
+
+      // Points farther along a ray are swept first, and a segment leaves the sweep at its end, so
+      // one ending on the ray where another starts is still there only if it ends nearer.
+      Point aEnd = a.end.point();
+      Point bStart = b.start.point();
+      if (onSameRay(origin.x(), origin.y(), aEnd.x(), aEnd.y(), bStart.x(), bStart.y())) {
+        return -1;
+      }
+      Point bEnd = b.end.point();
+      Point aStart = a.start.point();
+      if (onSameRay(origin.x(), origin.y(), bEnd.x(), bEnd.y(), aStart.x(), aStart.y())) {
+        return 1;
+      }
+
+      LineSegment la = a.ref.lineSegment();
+      LineSegment lb = b.ref.lineSegment();
+      int nearer = nearerSegment(origin.x(), origin.y(), la.p1().x(), la.p1().y(), la.p2().x(),
+          la.p2().y(), lb.p1().x(), lb.p1().y(), lb.p2().x(), lb.p2().y());
+      return nearer != 0 ? nearer : Integer.compare(a.id, b.id);
+    }
+
+    private SweepSegment head() {
+      if (active.isEmpty()) {
+        throw new RuntimeException("space not enclosed");
+      }
+      return active.first();
+    }
+  }
+
+  // Collects every segment crossing the ray at the start of the sweep.
+  private static final class StraddlingSegmentSearch implements SegmentGrid.RaySearch {
+    private final List<EnclosedRaycastSpace.LineSegmentRef> candidates = new ArrayList<>();
+
+    @Override
+    public void test(EnclosedRaycastSpace.LineSegmentRef segment) {
+      candidates.add(segment);
+    }
+
+    @Override
+    public double bestDistance() {
+      return Double.POSITIVE_INFINITY;
+    }
+  }
+
   public static RayTrace buildRadialTrace(EnclosedRaycastSpace space, Point origin,
       double maxDistance, LineSegment occlusionWindow, EnclosedRaycastSpace.LineSegmentRef portal) {
-    Comparator<Angle> angleComparator = Comparator.comparing(Angle::radians);
+    return buildRadialTrace(space, origin, maxDistance, occlusionWindow, portal,
+        TracePolicy.unbounded(), 0, null, false);
+  }
+
+  private static RayTrace buildRadialTrace(EnclosedRaycastSpace space, Point origin,
+      double maxDistance, LineSegment occlusionWindow, EnclosedRaycastSpace.LineSegmentRef portal,
+      TracePolicy policy, int depth,
+      ImmutableSet<EnclosedRaycastSpace.PortalLink> visiblePortalLinks, boolean parallel) {
+    // Sweep counter-clockwise, starting either at the occlusion window's edge or between the last
+    // and first directions, from a point on the starting ray.
+    Point windowStart = null;
+    Point windowEnd = null;
+    Point from;
     Predicate<RadialPointRef> filter = r -> true;
-    Angle.Range range = null;
     if (occlusionWindow != null) {
-      Angle a1 = Angle.from(origin, occlusionWindow.p1());
-      Angle a2 = Angle.from(origin, occlusionWindow.p2());
-      range = Angle.Range.createAcuteCounterClockwise(a1, a2);
-      angleComparator = range.comparator();
+      // Orient the occlusion window counter-clockwise as seen from the origin.
+      windowStart = occlusionWindow.p1();
+      windowEnd = occlusionWindow.p2();
+      if (Predicates.orientation(origin, windowStart, windowEnd) < 0) {
+        windowStart = occlusionWindow.p2();
+        windowEnd = occlusionWindow.p1();
+      }
+      from = windowStart;
 
-      Angle.Range finalRange = range;
+      Point filterEnd = windowEnd;
+      int originSide = Predicates.orientation(occlusionWindow.p1(), occlusionWindow.p2(), origin);
       filter = r -> {
-        Angle angle = r.vector().angle();
-        if (!finalRange.contains(angle)) {
+        if (compareDirections(origin.x(), origin.y(), from.x(), from.y(), r.point().x(),
+            r.point().y(), filterEnd.x(), filterEnd.y()) >= 0) {
           return false;
         }
 
-        Point intersection = Line
-            .intersection(RadialVector.create(r.vector().angle(), 1.0).lineFrom(origin),
-                occlusionWindow.line())
-            .orElseThrow(() -> new RuntimeException("bad occlusion window"));
-        return Point.distSquared(origin, r.point()) > Point.distSquared(origin, intersection);
+        // Only points strictly beyond the window's line.
+        return originSide != 0 && Predicates.orientation(occlusionWindow.p1(),
+            occlusionWindow.p2(), r.point()) == -originSide;
       };
+    } else {
+      DoubleSummaryStatistics pseudoAngles = space.polygonRefs()
+          .flatMap(p -> p.pointRefs().stream())
+          .mapToDouble(p -> PseudoAngle.of(p.point().x() - origin.x(), p.point().y() - origin.y()))
+          .summaryStatistics();
+      double sweepStart =
+          PseudoAngle.counterClockwiseMidpoint(pseudoAngles.getMax(), pseudoAngles.getMin());
+      from = Point.create(origin.x() + PseudoAngle.dx(sweepStart),
+          origin.y() + PseudoAngle.dy(sweepStart));
     }
 
     ImmutableList<RadialPointRef> radialPointRefs = space.polygonRefs()
         .flatMap(p -> p.pointRefs().stream()).map(p -> RadialPointRef.create(origin, p))
         .filter(filter)
-        .sorted(
-            Comparator.comparing(RadialPointRef::vector, RadialVector.raycastSort(angleComparator)))
+        .sorted((a, b) -> compareSweepOrder(origin.x(), origin.y(), from.x(), from.y(),
+            a.point().x(), a.point().y(), b.point().x(), b.point().y()))
         .collect(ImmutableList.toImmutableList());
 
-    // Compute all line segments that intersect the origin raycast.
-    Set<EnclosedRaycastSpace.LineSegmentRef> activeSegments =
-        space.polygonRefs().flatMap(p -> p.lineSegmentRefs().stream()).filter(p -> p != portal)
-            .collect(Collectors.toCollection(HashSet::new));
+    // Seed the sweep with everything crossing the starting ray.
+    Sweep sweep = new Sweep(origin, from, portal);
+    StraddlingSegmentSearch straddling = new StraddlingSegmentSearch();
+    space.castRay(origin.x(), origin.y(), from.x() - origin.x(), from.y() - origin.y(),
+        straddling);
+    for (EnclosedRaycastSpace.LineSegmentRef ref : straddling.candidates) {
+      Optional<SweepSegment> opt = sweep.segment(ref);
+      if (!opt.isPresent() || !sweep.crossesStartingRay(opt.get())) {
+        continue;
+      }
 
-    // Now, start at angle 0, and progress radially through the points.
-    // At each point, we ray cast to find which segment should be continued.
-    RadialPointRef prevRadialPointRef =
-        radialPointRefs.isEmpty() ? null : radialPointRefs.get(radialPointRefs.size() - 1);
-    Angle midStart;
-    if (occlusionWindow != null) {
-      midStart = Angle.counterClockwiseMidpoint(range.start(),
-          radialPointRefs.isEmpty() ? range.end() : radialPointRefs.get(0).vector().angle());
-    } else {
-      midStart = Angle.counterClockwiseMidpoint(prevRadialPointRef.vector().angle(),
-          radialPointRefs.get(0).vector().angle());
+      SweepSegment s = opt.get();
+      if (occlusionWindow != null) {
+        // Walls between the origin and the window belong to the other side of the portal. Those
+        // on the window's line, or crossing it, are judged on the starting ray, where the window
+        // starts.
+        LineSegment ls = s.ref.lineSegment();
+        int nearer = nearerSegment(origin.x(), origin.y(), occlusionWindow.p1().x(),
+            occlusionWindow.p1().y(), occlusionWindow.p2().x(), occlusionWindow.p2().y(),
+            ls.p1().x(), ls.p1().y(), ls.p2().x(), ls.p2().y());
+        if (nearer == 0) {
+          nearer = Predicates.orientation(ls.p1(), ls.p2(), windowStart)
+              == Predicates.orientation(ls.p1(), ls.p2(), origin) ? -1 : 1;
+        }
+        if (nearer > 0) {
+          continue;
+        }
+      }
+      sweep.active.add(s);
     }
-    Line midStartCast = RadialVector.createSquared(midStart, 1.0).lineFrom(origin);
-    EnclosedRaycastSpace.LineSegmentRef active =
-        rayCast(origin, midStart, midStartCast, activeSegments, occlusionWindow);
 
-    RecursivePolyBuilder polyBuilder = new RecursivePolyBuilder(origin, maxDistance);
+    RecursivePolyBuilder polyBuilder = new RecursivePolyBuilder(space, origin, maxDistance,
+        policy, depth, visiblePortalLinks, parallel);
     if (occlusionWindow != null) {
-      polyBuilder.addPoint(occlusionWindow.p1());
-      Line startCast = RadialVector.createSquared(range.start(), 1.0).lineFrom(origin);
-      polyBuilder.addPoint(Line.intersection(active.lineSegment().line(), startCast)
-          .orElseThrow(() -> new RuntimeException("bad midstart")), active);
-    }
-    for (int i = 0; i < radialPointRefs.size() + 1; i++) {
-      if (i == radialPointRefs.size() && occlusionWindow != null) {
-        break; 
+      polyBuilder.addPoint(windowStart);
+      SweepSegment head = sweep.head();
+      polyBuilder.addPoint(sweep.intersection(head, windowStart), head.ref);
+    }
+
+    // At each point, retire the segments ending there and admit the ones starting there. If that
+    // changes the nearest wall, either:
+    // 1) The wall we were following ends at this point.
+    // - Add the point, and, unless the next wall continues from it, the point where the ray drops
+    // off onto the wall behind.
+    // 2) A new wall starts in front of the one we were following.
+    // - Add the point where the ray leaves the old wall, then the new point.
+    //
+    // The sweep may run empty only where the ray slips between walls through a gap it can't see:
+    // along a wall seen edge-on, or between points on the same ray. The next point must close it.
+    SweepSegment before = sweep.head();
+    for (int i = 0; i < radialPointRefs.size(); i++) {
+      RadialPointRef radialPointRef = radialPointRefs.get(i);
+
+      for (EnclosedRaycastSpace.LineSegmentRef ref : radialPointRef.ref().lineSegments()) {
+        sweep.segment(ref).filter(s -> s.end == radialPointRef.ref())
+            .ifPresent(sweep.active::remove);
+      }
+      for (EnclosedRaycastSpace.LineSegmentRef ref : radialPointRef.ref().lineSegments()) {
+        sweep.segment(ref).filter(s -> s.start == radialPointRef.ref() && !s.startsOnRay)
+            .ifPresent(sweep.active::add);
       }
-      boolean occlusionInitial = i == 0 && occlusionWindow != null;
-      boolean occlusionTerminal = i == radialPointRefs.size() - 1 && occlusionWindow != null;
-
-      RadialPointRef radialPointRef = radialPointRefs.get(i % radialPointRefs.size());
-      RadialPointRef nextRadialPointRef = radialPointRefs.get((i + 1) % radialPointRefs.size());
-      // As we encounter each point, several things can happen:
-      // 1) A new line segment closer to the observer is encountered.
-      // - in this case, we must add new points - one for the current intersection with the
-      // the old segment, and one for an endpoint of the new segment.
-      // 2) The point is behind the current line segment.
-      // - Nothing is done here, the point is ignored.
-      // 3) An endpoint of the current line segment is encountered.
-      // - It can be assumed that no other segment is closer, since that would mean
-      // intersecting segments, and we assume none of those.
-      // - Add a point for the current segment, do nothing else.
-      // 4) The current segment no longer covers the angle inspected.
-      // - In this case, do a new ray cast at the midpoint between the angle of the previous
-      // point and this one. This identifies the segment that comes after the previous one
-      // and possibly before the new one, which means an addition of up to 3 points to the
-      // polygon.
-      ImmutableSet<EnclosedRaycastSpace.LineSegmentRef> newSegments =
-          radialPointRef.ref().lineSegments();
-      if (portal != null && newSegments.contains(portal)) {
-        newSegments =
-            newSegments.stream().filter(p -> p != portal).collect(ImmutableSet.toImmutableSet());
+
+      SweepSegment after = sweep.active.isEmpty() ? null : sweep.active.first();
+      if (after == null && (i + 1 == radialPointRefs.size()
+          || !closesGap(radialPointRef, radialPointRefs.get(i + 1), origin))) {
+        throw new RuntimeException("space not enclosed");
+      }
+      if (after == before) {
+        continue;
       }
-      activeSegments.addAll(newSegments);
-      if (newSegments.contains(active)) {
-        // Case 3.
+
+      if (before == null || after == null) {
+        // Either side of a gap.
         polyBuilder.addPoint(radialPointRef);
-      } else {
-        Line rayLine = radialPointRef.vector().lineFrom(origin);
-        Optional<Point> currentIntersection =
-            singleRayCast(origin, radialPointRef.vector().angle(), rayLine, active.lineSegment());
-
-        if (!currentIntersection.isPresent()) {
-          // Case 4.
-          Angle prev = occlusionInitial ? range.start() : prevRadialPointRef.vector().angle();
-          Angle mid = Angle.counterClockwiseMidpoint(prev, radialPointRef.vector().angle());
-          Line midCast = RadialVector.createSquared(mid, 1.0).lineFrom(origin);
-          Line prevCast = RadialVector.createSquared(prev, 1.0).lineFrom(origin);
-          active = rayCast(origin, mid, midCast, activeSegments, occlusionWindow);
-          activeSegments.addAll(newSegments);
-
-          if (!active.containsPointRef(prevRadialPointRef.ref())) {
-            EnclosedRaycastSpace.LineSegmentRef localActive = active;
-            Point dropOff = Line.intersection(active.lineSegment().line(), prevCast)
-                .orElseThrow(() -> new RuntimeException(localActive.lineSegment() + "; " + mid));
-            polyBuilder.addPoint(dropOff, active);
-          }
-
-          // Now, check if a pull-up point to the current point is needed.
-          if (!active.containsPointRef(radialPointRef.ref())) {
-            // The midSegment is different, so add a pull-up point.
-            Point pullUp = Line.intersection(active.lineSegment().line(), rayLine).get();
-            if (Point.distSquared(origin, pullUp) > Point.distSquared(origin,
-                radialPointRef.point())) {
-              polyBuilder.addPoint(pullUp, active);
-
-              // Disambiguate the active segment
-              Set<EnclosedRaycastSpace.LineSegmentRef> disambig = new HashSet<>(newSegments);
-              Angle nextMid = Angle.counterClockwiseMidpoint(radialPointRef.vector().angle(),
-                  occlusionTerminal ? range.end() : nextRadialPointRef.vector().angle());
-              Line nextMidCast = RadialVector.createSquared(nextMid, 1.0).lineFrom(origin);
-              active = rayCast(origin, nextMid, nextMidCast, disambig, occlusionWindow);
-
-              polyBuilder.addPoint(radialPointRef);
-            }
-          } else {
-            polyBuilder.addPoint(radialPointRef);
-          }
-        } else if (Point.distSquared(origin, currentIntersection.get()) < Point.distSquared(origin,
-            radialPointRef.point())) {
-          // Case 2.
-          // Do nothing.
-        } else {
-          // Case 1.
-          polyBuilder.addPoint(currentIntersection.get(), active);
-          polyBuilder.addPoint(radialPointRef);
-
-          // Disambiguate the active segment
-          Set<EnclosedRaycastSpace.LineSegmentRef> disambig = new HashSet<>(newSegments);
-          Angle nextMid = Angle.counterClockwiseMidpoint(radialPointRef.vector().angle(),
-              occlusionTerminal ? range.end() : nextRadialPointRef.vector().angle());
-          Line nextMidCast = RadialVector.createSquared(nextMid, 1.0).lineFrom(origin);
-          active = rayCast(origin, nextMid, nextMidCast, disambig, occlusionWindow);
+      } else if (before.end == radialPointRef.ref()) {
+        // Case 1.
+        polyBuilder.addPoint(radialPointRef);
+        if (!after.ref.containsPointRef(radialPointRef.ref())) {
+          polyBuilder.addPoint(sweep.intersection(after, radialPointRef.point()), after.ref);
         }
+      } else {
+        // Case 2.
+        polyBuilder.addPoint(sweep.intersection(before, radialPointRef.point()), before.ref);
+        polyBuilder.addPoint(radialPointRef);
       }
-
-      prevRadialPointRef = radialPointRef;
+      before = after;
     }
 
-    // Close out the final midpoint.
+    // Close out the occlusion window.
     if (occlusionWindow != null) {
-      Angle midEnd = Angle.counterClockwiseMidpoint(radialPointRefs.isEmpty() ? range.start()
-          : radialPointRefs.get(radialPointRefs.size() - 1).vector().angle(), range.end());
-      Line midEndCast = RadialVector.create(midEnd, 1.0).lineFrom(origin);
-      EnclosedRaycastSpace.LineSegmentRef prevActive = active;
-      active = rayCast(origin, range.end(), midEndCast, activeSegments, occlusionWindow);
-      if (active != prevActive) {
-        Line pullUpCast = Line.from(origin, polyBuilder.lastPoint());
-        polyBuilder.addPoint(Line.intersection(pullUpCast, active.lineSegment().line())
-            .orElseThrow(() -> new RuntimeException("foo")), active);
-      }
-      Line endCast = RadialVector.create(range.end(), 1.0).lineFrom(origin);
-      polyBuilder.addPoint(Line.intersection(active.lineSegment().line(), endCast)
-          .orElseThrow(() -> new RuntimeException("bad midstart")), active);
-      polyBuilder.addPoint(occlusionWindow.p2());
+      SweepSegment head = sweep.head();
+      polyBuilder.addPoint(sweep.intersection(head, windowEnd), head.ref);
+      polyBuilder.addPoint(windowEnd);
     }
 
     return new RayTrace(space, polyBuilder.buildPolygon(), polyBuilder.buildRecursiveRayTraces());
   }
 
-  private static Optional<Point> singleRayCast(Point origin, Angle angle, Line line,
-      LineSegment segment) {
-    Optional<Point> intersectionOpt = Line.intersection(line, segment.line());
-    if (!intersectionOpt.isPresent()) {
-      return Optional.empty();
-    }
-
-    Point intersection = intersectionOpt.get();
-    if (!segment.containsLinePoint(intersection)
-        || Angle.acuteDiff(RadialVector.from(origin, intersection).angle(), angle)
-            .radians() > Math.PI / 2) {
-      return Optional.empty();
-    }
-
-    return intersectionOpt;
-  }
-
-  private static EnclosedRaycastSpace.LineSegmentRef rayCast(Point origin, Angle ray, Line line,
-      Set<EnclosedRaycastSpace.LineSegmentRef> segments, LineSegment occlusionWindow) {
-    EnclosedRaycastSpace.LineSegmentRef best = null;
-    double bestDist = Double.POSITIVE_INFINITY;
-    double minDist = Double.NEGATIVE_INFINITY;
-    if (occlusionWindow != null) {
-      minDist =
-          Point.distSquared(origin, Line.intersection(occlusionWindow.line(), line).get()) - 1e-6;
-    }
-
-    Set<EnclosedRaycastSpace.LineSegmentRef> toRemove = new HashSet<>();
-    for (EnclosedRaycastSpace.LineSegmentRef segment : segments) {
-      Optional<Point> intersection = singleRayCast(origin, ray, line, segment.lineSegment());
-      if (!intersection.isPresent()) {
-        toRemove.add(segment);
-        continue;
-      }
-
-      double dist = Point.distSquared(intersection.get(), origin);
-      if (dist > minDist && dist < bestDist) {
-        bestDist = dist;
-        best = segment;
-      }
-    }
-
-    segments.removeAll(toRemove);
-    return checkNotNull(best);
+  private static boolean closesGap(RadialPointRef p, RadialPointRef q, Point origin) {
+    return p.pseudoAngle() == q.pseudoAngle()
+        || p.ref().lineSegments().stream().anyMatch(ls -> ls.containsPointRef(q.ref()))
+        || onSameRay(origin.x(), origin.y(), p.point().x(), p.point().y(), q.point().x(),
+            q.point().y());
   }
 
   // TODO: Build portal trace.
@@ -0,0 +1,178 @@
+package geom;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+// A uniform grid over the bounding boxes of a space's line segments.
+//
+// Segments are bucketed into every cell their (slightly padded) bounding box overlaps, so a ray
+// cast only has to look at the cells the ray walks through, nearest first, and a range query only
+// at the cells under the query box. Callers must tolerate seeing a segment more than once.
+final class SegmentGrid {
+  private static final double CELL_SIZE = 100;
+  private static final int MAX_CELLS_PER_AXIS = 256;
+  private static final double PADDING = 1e-6;
+
+  interface RaySearch {
+    void test(EnclosedRaycastSpace.LineSegmentRef segment);
+
+    // Distance along the ray to the best hit so far, in multiples of the ray's direction, or
+    // infinity.
+    double bestDistance();
+  }
+
+  private final double x0;
+  private final double y0;
+  private final double cellSize;
+  private final int cols;
+  private final int rows;
+  private final List<List<EnclosedRaycastSpace.LineSegmentRef>> cells;
+
+  private SegmentGrid(double x0, double y0, double cellSize, int cols, int rows) {
+    this.x0 = x0;
+    this.y0 = y0;
+    this.cellSize = cellSize;
+    this.cols = cols;
+    this.rows = rows;
+    this.cells = new ArrayList<>(cols * rows);
+    for (int i = 0; i < cols * rows; i++) {
+      cells.add(new ArrayList<>(0));
+    }
+  }
+
+  public static SegmentGrid forBounds(Rectangle bounds) {
+    double cellSize = Math.max(CELL_SIZE,
+        Math.max(bounds.width(), bounds.height()) / MAX_CELLS_PER_AXIS);
+    int cols = Math.max(1, (int) Math.ceil(bounds.width() / cellSize));
+    int rows = Math.max(1, (int) Math.ceil(bounds.height() / cellSize));
+    return new SegmentGrid(bounds.x1(), bounds.y1(), cellSize, cols, rows);
+  }
+
+  private int col(double x) {
+    return Math.max(0, Math.min(cols - 1, (int) Math.floor((x - x0) / cellSize)));
+  }
+
+  private int row(double y) {
+    return Math.max(0, Math.min(rows - 1, (int) Math.floor((y - y0) / cellSize)));
+  }
+
+  public int numCells() {
+    return cols * rows;
+  }
+
+  // The cell containing (x, y), or -1 if it's outside the grid.
+  public int cellAt(double x, double y) {
+    if (x < x0 || x > x0 + cols * cellSize || y < y0 || y > y0 + rows * cellSize) {
+      return -1;
+    }
+    return row(y) * cols + col(x);
+  }
+
+  public Rectangle cellBounds(int cell) {
+    int c = cell % cols;
+    int r = cell / cols;
+    return Rectangle.create(
+        Point.create(x0 + (c + 0.5) * cellSize, y0 + (r + 0.5) * cellSize), cellSize, cellSize);
+  }
+
+  public void add(EnclosedRaycastSpace.LineSegmentRef segment) {
+    LineSegment ls = segment.lineSegment();
+    int c1 = col(Math.min(ls.p1().x(), ls.p2().x()) - PADDING);
+    int c2 = col(Math.max(ls.p1().x(), ls.p2().x()) + PADDING);
+    int r1 = row(Math.min(ls.p1().y(), ls.p2().y()) - PADDING);
+    int r2 = row(Math.max(ls.p1().y(), ls.p2().y()) + PADDING);
+    for (int r = r1; r <= r2; r++) {
+      for (int c = c1; c <= c2; c++) {
+        cells.get(r * cols + c).add(segment);
+      }
+    }
+  }
+
+  // Visits every segment in a cell overlapping the axis-aligned box around `center`.
+  public void forEachNear(Point center, double radius,
+      Consumer<EnclosedRaycastSpace.LineSegmentRef> consumer) {
+    if (center.x() + radius < x0 || center.x() - radius > x0 + cols * cellSize
+        || center.y() + radius < y0 || center.y() - radius > y0 + rows * cellSize) {
+      return;
+    }
+
+    int c1 = col(center.x() - radius);
+    int c2 = col(center.x() + radius);
+    int r1 = row(center.y() - radius);
+    int r2 = row(center.y() + radius);
+    for (int r = r1; r <= r2; r++) {
+      for (int c = c1; c <= c2; c++) {
+        cells.get(r * cols + c).forEach(consumer);
+      }
+    }
+  }
+
+  // Walks the cells along the ray from `origin` in order, offering each segment to `search`, and
+  // stops as soon as no unvisited cell can hold a hit closer than the best one so far.
+  public void castRay(double ox, double oy, double dx, double dy, RaySearch search) {
+    // Clip the ray to the grid bounds, since traces through portals start outside the space.
+    double tMin = 0;
+    double tMax = Double.POSITIVE_INFINITY;
+    if (dx == 0) {
+      if (ox < x0 || ox > x0 + cols * cellSize) {
+        return;
+      }
+    } else {
+      double t1 = (x0 - ox) / dx;
+      double t2 = (x0 + cols * cellSize - ox) / dx;
+      tMin = Math.max(tMin, Math.min(t1, t2));
+      tMax = Math.min(tMax, Math.max(t1, t2));
+    }
+    if (dy == 0) {
+      if (oy < y0 || oy > y0 + rows * cellSize) {
+        return;
+      }
+    } else {
+      double t1 = (y0 - oy) / dy;
+      double t2 = (y0 + rows * cellSize - oy) / dy;
+      tMin = Math.max(tMin, Math.min(t1, t2));
+      tMax = Math.min(tMax, Math.max(t1, t2));
+    }
+    if (tMin > tMax) {
+      return;
+    }
+
+    int c = col(ox + dx * tMin);
+    int r = row(oy + dy * tMin);
+    int stepC = dx > 0 ? 1 : -1;
+    int stepR = dy > 0 ? 1 : -1;
+    double tDeltaC = dx == 0 ? Double.POSITIVE_INFINITY : cellSize / Math.abs(dx);
+    double tDeltaR = dy == 0 ? Double.POSITIVE_INFINITY : cellSize / Math.abs(dy);
+    double tNextC = dx == 0 ? Double.POSITIVE_INFINITY
+        : (x0 + (c + (dx > 0 ? 1 : 0)) * cellSize - ox) / dx;
+    double tNextR = dy == 0 ? Double.POSITIVE_INFINITY
+        : (y0 + (r + (dy > 0 ? 1 : 0)) * cellSize - oy) / dy;
+
+    while (true) {
+      List<EnclosedRaycastSpace.LineSegmentRef> cell = cells.get(r * cols + c);
+      for (int i = 0; i < cell.size(); i++) {
+        search.test(cell.get(i));
+      }
+
+      double tExit = Math.min(tNextC, tNextR);
+      if (search.bestDistance() <= tExit || tExit > tMax) {
+        return;
+      }
+
+      if (tNextC < tNextR) {
+        c += stepC;
+        tNextC += tDeltaC;
+        if (c < 0 || c >= cols) {
+          return;
+        }
+      } else {
+        r += stepR;
+        tNextR += tDeltaR;
+        if (r < 0 || r >= rows) {
+          return;
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,743 @@
+package geom;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+// An allocation-free alternative to RayTrace.buildRadialTrace.
+//
+// The kernel runs the same angular sweep over each space's packed coordinates, keeping all of its
+// working state in primitive arrays that are reused from trace to trace. Kernels are not
+// thread-safe, so each thread gets its own via forCurrentThread().
+//
+// Portal recursion is breadth-first: a trace queues its children as it finds them and they are
+// swept after it. The result is a PackedTrace, which can be read in place or converted into the
+// exact RayTrace that buildRadialTrace would have produced.
+public final class TraceKernel implements SegmentGrid.RaySearch {
+  private static final ThreadLocal<TraceKernel> KERNELS = ThreadLocal.withInitial(TraceKernel::new);
+
+  private static final double MIN_DELTA_SQUARED = 1e-12;
+
+  // The flattened output of a trace: one node per RayTrace, in breadth-first order.
+  public static final class PackedTrace {
+    private int numNodes = 0;
+    private int[] parents = new int[16];
+    private EnclosedRaycastSpace[] spaces = new EnclosedRaycastSpace[16];
+    private EnclosedRaycastSpace.PortalLink[] portalLinks = new EnclosedRaycastSpace.PortalLink[16];
+    private int[] depths = new int[16];
+    private boolean[] dropped = new boolean[16];
+    private int[] pointOffsets = new int[16];
+    private int[] numPoints = new int[16];
+
+    // Sweep inputs: the origin, the occlusion window and the excluded portal segment.
+    private double[] inputs = new double[6 * 16];
+    private int[] excluded = new int[16];
+
+    private int numCoords = 0;
+    private double[] coords = new double[256];
+
+    private PackedTrace() {}
+
+    public int numNodes() {
+      return numNodes;
+    }
+
+    // The node this one was traced from through portalLink(node), or -1 for the root.
+    public int parent(int node) {
+      return parents[node];
+    }
+
+    // Whether the sweep failed for this node; like RayTrace, such nodes are left out.
+    public boolean dropped(int node) {
+      return dropped[node];
+    }
+
+    public EnclosedRaycastSpace space(int node) {
+      return spaces[node];
+    }
+
+    public EnclosedRaycastSpace.PortalLink portalLink(int node) {
+      return portalLinks[node];
+    }
+
+    // The number of portals between this node and the root.
+    public int depth(int node) {
+      return depths[node];
+    }
+
+    public int numPoints(int node) {
+      return numPoints[node];
+    }
+
+    public double x(int node, int point) {
+      return coords[2 * (pointOffsets[node] + point)];
+    }
+
+    public double y(int node, int point) {
+      return coords[2 * (pointOffsets[node] + point) + 1];
+    }
+
+    private int addNode(int parent, EnclosedRaycastSpace space,
+        EnclosedRaycastSpace.PortalLink portalLink, int excludedSegment) {
+      if (numNodes == parents.length) {
+        int n = 2 * numNodes;
+        parents = Arrays.copyOf(parents, n);
+        spaces = Arrays.copyOf(spaces, n);
+        portalLinks = Arrays.copyOf(portalLinks, n);
+        depths = Arrays.copyOf(depths, n);
+        dropped = Arrays.copyOf(dropped, n);
+        pointOffsets = Arrays.copyOf(pointOffsets, n);
+        numPoints = Arrays.copyOf(numPoints, n);
+        inputs = Arrays.copyOf(inputs, 6 * n);
+        excluded = Arrays.copyOf(excluded, n);
+      }
+      parents[numNodes] = parent;
+      spaces[numNodes] = space;
+      portalLinks[numNodes] = portalLink;
+      depths[numNodes] = parent < 0 ? 0 : depths[parent] + 1;
+      dropped[numNodes] = false;
+      pointOffsets[numNodes] = 0;
+      numPoints[numNodes] = 0;
+      excluded[numNodes] = excludedSegment;
+      return numNodes++;
+    }
+
+    private void addPoint(double x, double y) {
+      if (2 * numCoords + 2 > coords.length) {
+        coords = Arrays.copyOf(coords, 2 * coords.length);
+      }
+      coords[2 * numCoords] = x;
+      coords[2 * numCoords + 1] = y;
+      numCoords++;
+    }
+
+    private void truncate(int numNodes, int numCoords) {
+      Arrays.fill(spaces, numNodes, this.numNodes, null);
+      Arrays.fill(portalLinks, numNodes, this.numNodes, null);
+      this.numNodes = numNodes;
+      this.numCoords = numCoords;
+    }
+
+    private void reset() {
+      truncate(0, 0);
+    }
+
+    public RayTrace toRayTrace() {
+      RayTrace[] traces = new RayTrace[numNodes];
+      List<List<RayTrace.RecursiveRayTrace>> children = new ArrayList<>();
+      for (int node = 0; node < numNodes; node++) {
+        children.add(new ArrayList<>());
+      }
+
+      for (int node = numNodes - 1; node >= 0; node--) {
+        if (dropped[node]) {
+          continue;
+        }
+
+        Polygon.Builder polyBuilder = Polygon.builder();
+        for (int i = 0; i < numPoints[node]; i++) {
+          polyBuilder.addPoint(x(node, i), y(node, i));
+        }
+        List<RayTrace.RecursiveRayTrace> nodeChildren = children.get(node);
+        traces[node] = new RayTrace(spaces[node], polyBuilder.build(),
+            ImmutableList.copyOf(nodeChildren).reverse());
+        if (parents[node] >= 0) {
+          children.get(parents[node])
+              .add(RayTrace.RecursiveRayTrace.create(portalLinks[node], traces[node]));
+        }
+      }
+      return traces[0];
+    }
+  }
+
+  private final PackedTrace out = new PackedTrace();
+
+  // Per-sweep state. Arrays indexed by packed point or segment are sized for the largest space
+  // seen so far.
+  private double ox;
+  private double oy;
+  private double maxDistance;
+  private double maxDistanceSquared;
+  private TracePolicy policy;
+  private ImmutableSet<EnclosedRaycastSpace.PortalLink> visiblePortalLinks;
+  // A point on the sweep's starting ray.
+  private double sx;
+  private double sy;
+  private int stamp = 0;
+  private int numTouched;
+
+  private double[] pseudoAngles = new double[0];
+  private double[] keys = new double[0];
+  private int[] events = new int[0];
+  private int numEvents;
+
+  private int[] segmentStamps = new int[0];
+  private int[] segmentIds = new int[0];
+  private int[] segmentStarts = new int[0];
+  private int[] segmentEnds = new int[0];
+  private boolean[] startsOnRay = new boolean[0];
+
+  // An indexed binary heap of segments, ordered like RayTrace's sweep set.
+  private int[] heap = new int[0];
+  private int[] heapPositions = new int[0];
+  private int heapSize;
+
+  private int[] candidates = new int[16];
+  private int numCandidates;
+
+  private EnclosedRaycastSpace space;
+  private double[] points;
+  private int excludedSegment;
+
+  // The polygon under construction, with up to two portal segments per point.
+  private int node;
+  private double firstX;
+  private double firstY;
+  private int firstLinkA;
+  private int firstLinkB;
+  private boolean hasPrev;
+  private double prevX;
+  private double prevY;
+  private int prevLinkA;
+  private int prevLinkB;
+  private final double[] txPoints = new double[6];
+
+  private TraceKernel() {}
+
+  public static TraceKernel forCurrentThread() {
+    return KERNELS.get();
+  }
+
+  public static RayTrace buildRadialTrace(EnclosedRaycastSpace space, Point origin,
+      double maxDistance) {
+    return buildRadialTrace(space, origin, maxDistance, TracePolicy.unbounded());
+  }
+
+  public static RayTrace buildRadialTrace(EnclosedRaycastSpace space, Point origin,
+      double maxDistance, TracePolicy policy) {
+    return forCurrentThread().trace(space, origin, maxDistance, policy).toRayTrace();
+  }
+
+  // Traces `space` from `origin`. The result is owned by this kernel and is overwritten by the
+  // next call.
+  public PackedTrace trace(EnclosedRaycastSpace space, Point origin, double maxDistance) {
+    return trace(space, origin, maxDistance, TracePolicy.unbounded());
+  }
+
+  public PackedTrace trace(EnclosedRaycastSpace space, Point origin, double maxDistance,
+      TracePolicy policy) {
+    out.reset();
+    int root = out.addNode(-1, space, null, -1);
+    out.inputs[6 * root] = origin.x();
+    out.inputs[6 * root + 1] = origin.y();
+    out.inputs[6 * root + 2] = Double.NaN;
+    this.maxDistance = maxDistance;
+    this.maxDistanceSquared = maxDistance * maxDistance;
+    this.policy = policy;
+    this.visiblePortalLinks = PotentiallyVisibleSet.portalLinksFor(space, origin, maxDistance);
+
+    for (int n = 0; n < out.numNodes; n++) {
+      int numNodes = out.numNodes;
+      int numCoords = out.numCoords;
+      if (!sweep(n)) {
+        if (n == root) {
+          throw new RuntimeException("space not enclosed");
+        }
+        out.truncate(numNodes, numCoords);
+        out.dropped[n] = true;
+      }
+    }
+    return out;
+  }
+
+  private void ensureCapacity(int numPoints) {
+    if (pseudoAngles.length >= numPoints) {
+      return;
+    }
+    pseudoAngles = new double[numPoints];
+    keys = new double[numPoints];
+    events = new int[numPoints];
+    segmentStamps = new int[numPoints];
+    segmentIds = new int[numPoints];
+    segmentStarts = new int[numPoints];
+    segmentEnds = new int[numPoints];
+    startsOnRay = new boolean[numPoints];
+    heap = new int[numPoints];
+    heapPositions = new int[numPoints];
+  }
+
+  private boolean sweep(int n) {
+    node = n;
+    space = out.spaces[n];
+    points = space.packedPoints();
+    excludedSegment = out.excluded[n];
+    ox = out.inputs[6 * n];
+    oy = out.inputs[6 * n + 1];
+    boolean occluded = !Double.isNaN(out.inputs[6 * n + 2]);
+    double w1x = out.inputs[6 * n + 2];
+    double w1y = out.inputs[6 * n + 3];
+    double w2x = out.inputs[6 * n + 4];
+    double w2y = out.inputs[6 * n + 5];
+
+    int numPoints = space.numPackedPoints();
+    ensureCapacity(numPoints);
+    stamp++;
+    numTouched = 0;
+    heapSize = 0;
+    hasPrev = false;
+    out.pointOffsets[n] = out.numCoords;
+
+    // The window, oriented counter-clockwise as seen from the origin.
+    double startX = w1x;
+    double startY = w1y;
+    double endX = w2x;
+    double endY = w2y;
+    int originSide = 0;
+    if (occluded) {
+      if (Predicates.orientation(ox, oy, w1x, w1y, w2x, w2y) < 0) {
+        startX = w2x;
+        startY = w2y;
+        endX = w1x;
+        endY = w1y;
+      }
+      originSide = Predicates.orientation(w1x, w1y, w2x, w2y, ox, oy);
+      sx = startX;
+      sy = startY;
+    }
+
+    numEvents = 0;
+    double minPseudoAngle = Double.POSITIVE_INFINITY;
+    double maxPseudoAngle = Double.NEGATIVE_INFINITY;
+    for (int p = 0; p < numPoints; p++) {
+      double px = points[2 * p];
+      double py = points[2 * p + 1];
+      pseudoAngles[p] = PseudoAngle.of(px - ox, py - oy);
+      minPseudoAngle = Math.min(minPseudoAngle, pseudoAngles[p]);
+      maxPseudoAngle = Math.max(maxPseudoAngle, pseudoAngles[p]);
+      if (occluded) {
+        if (RayTrace.compareDirections(ox, oy, sx, sy, px, py, endX, endY) >= 0) {
+          continue;
+        }
+        if (originSide == 0
+            || Predicates.orientation(w1x, w1y, w2x, w2y, px, py) != -originSide) {
+          continue;
+        }
+      }
+      events[numEvents++] = p;
+    }
+
+    if (!occluded) {
+      if (numEvents == 0) {
+        return false;
+      }
+      double sweepStart = PseudoAngle.counterClockwiseMidpoint(maxPseudoAngle, minPseudoAngle);
+      sx = ox + PseudoAngle.dx(sweepStart);
+      sy = oy + PseudoAngle.dy(sweepStart);
+    }
+    double startAngle = PseudoAngle.of(sx - ox, sy - oy);
+    for (int i = 0; i < numEvents; i++) {
+      keys[events[i]] = PseudoAngle.counterClockwiseDiff(pseudoAngles[events[i]], startAngle);
+    }
+    sortEvents(0, numEvents - 1);
+
+    // Seed the sweep with everything crossing the starting ray.
+    numCandidates = 0;
+    space.castRay(ox, oy, sx - ox, sy - oy, this);
+    for (int i = 0; i < numCandidates; i++) {
+      int s = touch(candidates[i]);
+      if (s < 0 || !crossesStartingRay(s)) {
+        continue;
+      }
+
+      if (occluded) {
+        int p1 = space.packedPrevPoint(s);
+        int nearer = RayTrace.nearerSegment(ox, oy, w1x, w1y, w2x, w2y, points[2 * p1],
+            points[2 * p1 + 1], points[2 * s], points[2 * s + 1]);
+        if (nearer == 0) {
+          nearer = Predicates.orientation(points[2 * p1], points[2 * p1 + 1], points[2 * s],
+              points[2 * s + 1], startX, startY) == Predicates.orientation(points[2 * p1],
+                  points[2 * p1 + 1], points[2 * s], points[2 * s + 1], ox, oy) ? -1 : 1;
+        }
+        if (nearer > 0) {
+          continue;
+        }
+      }
+      heapInsert(s);
+    }
+
+    if (occluded) {
+      addPoint(startX, startY, -1, -1);
+      if (heapSize == 0) {
+        return false;
+      }
+      addIntersection(heap[0], startX, startY);
+    }
+
+    // As in RayTrace, the heap may run empty only where the next point closes the gap.
+    if (heapSize == 0) {
+      return false;
+    }
+    int before = heap[0];
+    for (int e = 0; e < numEvents; e++) {
+      int p = events[e];
+
+      int s1 = p;
+      int s2 = space.packedNextSegment(p);
+      int t1 = touch(s1);
+      int t2 = touch(s2);
+      if (t1 >= 0 && segmentEnds[t1] == p) {
+        heapRemove(t1);
+      }
+      if (t2 >= 0 && segmentEnds[t2] == p) {
+        heapRemove(t2);
+      }
+      if (t1 >= 0 && segmentStarts[t1] == p && !startsOnRay[t1]) {
+        heapInsert(t1);
+      }
+      if (t2 >= 0 && segmentStarts[t2] == p && !startsOnRay[t2]) {
+        heapInsert(t2);
+      }
+
+      int after = heapSize == 0 ? -1 : heap[0];
+      if (after < 0 && (e + 1 == numEvents || !closesGap(p, events[e + 1]))) {
+        return false;
+      }
+      if (after == before) {
+        continue;
+      }
+
+      if (before < 0 || after < 0) {
+        addEventPoint(p);
+      } else if (segmentEnds[before] == p) {
+        addEventPoint(p);
+        if (segmentStarts[after] != p && segmentEnds[after] != p) {
+          addIntersection(after, points[2 * p], points[2 * p + 1]);
+        }
+      } else {
+        addIntersection(before, points[2 * p], points[2 * p + 1]);
+        addEventPoint(p);
+      }
+      before = after;
+    }
+
+    if (occluded) {
+      if (heapSize == 0) {
+        return false;
+      }
+      addIntersection(heap[0], endX, endY);
+      addPoint(endX, endY, -1, -1);
+    }
+
+    if (out.numPoints[n] < 3) {
+      return false;
+    }
+    maybeRecurse(prevX, prevY, prevLinkA, prevLinkB, firstX, firstY, firstLinkA, firstLinkB);
+    return true;
+  }
+
+  @Override
+  public void test(EnclosedRaycastSpace.LineSegmentRef segment) {
+    if (numCandidates == candidates.length) {
+      candidates = Arrays.copyOf(candidates, 2 * numCandidates);
+    }
+    candidates[numCandidates++] = segment.packedIndex();
+  }
+
+  @Override
+  public double bestDistance() {
+    return Double.POSITIVE_INFINITY;
+  }
+
+  // Computes the sweep view of segment `s` on first use. Returns `s`, or -1 for the excluded
+  // portal and for segments seen edge-on.
+  private int touch(int s) {
+    if (segmentStamps[s] != stamp) {
+      segmentStamps[s] = stamp;
+      segmentIds[s] = numTouched++;
+      heapPositions[s] = -1;
+      segmentStarts[s] = -1;
+      if (s == excludedSegment) {
+        return -1;
+      }
+
+      int start = space.packedPrevPoint(s);
+      int end = s;
+      int orientation = Predicates.orientation(ox, oy, points[2 * start], points[2 * start + 1],
+          points[2 * end], points[2 * end + 1]);
+      if (orientation == 0) {
+        return -1;
+      } else if (orientation < 0) {
+        start = s;
+        end = space.packedPrevPoint(s);
+      }
+
+      segmentStarts[s] = start;
+      segmentEnds[s] = end;
+      startsOnRay[s] = onStartingRay(start);
+    }
+    return segmentStarts[s] < 0 ? -1 : s;
+  }
+
+  private boolean onStartingRay(int p) {
+    return RayTrace.onSameRay(ox, oy, sx, sy, points[2 * p], points[2 * p + 1]);
+  }
+
+  // Whether segment `s` is in the sweep at its start: whether it crosses the starting ray, or
+  // starts on it.
+  private boolean crossesStartingRay(int s) {
+    int start = segmentStarts[s];
+    int end = segmentEnds[s];
+    return startsOnRay[s] || (RayTrace.compareDirections(ox, oy, sx, sy, points[2 * end],
+        points[2 * end + 1], points[2 * start], points[2 * start + 1]) < 0
+        && !onStartingRay(end));
+  }
+
+  private double distance(int s, double dx, double dy) {
+    int p1 = space.packedPrevPoint(s);
+    return RayTrace.rayDistance(ox, oy, dx, dy, points[2 * p1], points[2 * p1 + 1],
+        points[2 * s], points[2 * s + 1]);
+  }
+
+  private int compare(int a, int b) {
+    if (a == b) {
+      return 0;
+    }
+
+    // As in RayTrace, a segment ending on the ray where another starts is the nearer.
+    if (onSameRay(segmentEnds[a], segmentStarts[b])) {
+      return -1;
+    }
+    if (onSameRay(segmentEnds[b], segmentStarts[a])) {
+      return 1;
+    }
+
+    int a1 = space.packedPrevPoint(a);
+    int b1 = space.packedPrevPoint(b);
+    int nearer = RayTrace.nearerSegment(ox, oy, points[2 * a1], points[2 * a1 + 1],
+        points[2 * a], points[2 * a + 1], points[2 * b1], points[2 * b1 + 1], points[2 * b],
+        points[2 * b + 1]);
+    return nearer != 0 ? nearer : Integer.compare(segmentIds[a], segmentIds[b]);
+  }
+
+  private boolean onSameRay(int p, int q) {
+    return RayTrace.onSameRay(ox, oy, points[2 * p], points[2 * p + 1], points[2 * q],
+        points[2 * q + 1]);
+  }
+
+  private boolean closesGap(int p, int q) {
+    return pseudoAngles[p] == pseudoAngles[q] || q == space.packedPrevPoint(p)
+        || q == space.packedNextSegment(p) || onSameRay(p, q);
+  }
+
+  private void heapInsert(int s) {
+    if (heapPositions[s] >= 0) {
+      // The grid may offer a segment more than once.
+      return;
+    }
+    heap[heapSize] = s;
+    heapPositions[s] = heapSize;
+    siftUp(heapSize++);
+  }
+
+  private void heapRemove(int s) {
+    int i = heapPositions[s];
+    if (i < 0) {
+      return;
+    }
+    heapPositions[s] = -1;
+    int last = heap[--heapSize];
+    if (i == heapSize) {
+      return;
+    }
+    heap[i] = last;
+    heapPositions[last] = i;
+    siftDown(i);
+    siftUp(heapPositions[last]);
+  }
+
+  private void siftUp(int i) {
+    int s = heap[i];
+    while (i > 0) {
+      int parent = (i - 1) / 2;
+      if (compare(s, heap[parent]) >= 0) {
+        break;
+      }
+      heap[i] = heap[parent];
+      heapPositions[heap[i]] = i;
+      i = parent;
+    }
+    heap[i] = s;
+    heapPositions[s] = i;
+  }
+
+  private void siftDown(int i) {
+    int s = heap[i];
+    while (true) {
+      int child = 2 * i + 1;
+      if (child >= heapSize) {
+        break;
+      }
+      if (child + 1 < heapSize && compare(heap[child + 1], heap[child]) < 0) {
+        child++;
+      }
+      if (compare(heap[child], s) >= 0) {
+        break;
+      }
+      heap[i] = heap[child];
+      heapPositions[heap[i]] = i;
+      i = child;
+    }
+    heap[i] = s;
+    heapPositions[s] = i;
+  }
+
+  // Orders events like RayTrace's point sort, whose ties keep their packed order.
+  private int compareEvents(int p, int q) {
+    int c = RayTrace.compareSweepOrder(ox, oy, sx, sy, points[2 * p], points[2 * p + 1],
+        points[2 * q], points[2 * q + 1]);
+    return c != 0 ? c : Integer.compare(p, q);
+  }
+
+  // Sorts events by their rounded keys first, which is cheap and leaves them nearly in order, and
+  // then finishes with an exact insertion sort, which only has the few misordered events to move.
+  private void sortEvents(int lo, int hi) {
+    sortKeys(lo, hi);
+    for (int i = lo + 1; i <= hi; i++) {
+      int e = events[i];
+      int j = i - 1;
+      while (j >= lo && compareEvents(events[j], e) > 0) {
+        events[j + 1] = events[j];
+        j--;
+      }
+      events[j + 1] = e;
+    }
+  }
+
+  private int compareKeys(int p, int q) {
+    int c = Double.compare(keys[p], keys[q]);
+    return c != 0 ? c : Integer.compare(p, q);
+  }
+
+  // Quicksorts events by key down to runs of 16, which the insertion sort finishes.
+  private void sortKeys(int lo, int hi) {
+    while (hi - lo > 16) {
+      int pivot = events[(lo + hi) >>> 1];
+      int i = lo;
+      int j = hi;
+      while (i <= j) {
+        while (compareKeys(events[i], pivot) < 0) {
+          i++;
+        }
+        while (compareKeys(events[j], pivot) > 0) {
+          j--;
+        }
+        if (i <= j) {
+          int tmp = events[i];
+          events[i++] = events[j];
+          events[j--] = tmp;
+        }
+      }
+      if (j - lo < hi - i) {
+        sortKeys(lo, j);
+        lo = i;
+      } else {
+        sortKeys(i, hi);
+        hi = j;
+      }
+    }
+  }
+
+  private int portalSegment(int s) {
+    return space.packedSegmentRef(s).hasPortalLink() ? s : -1;
+  }
+
+  private void addEventPoint(int p) {
+    int linkA = portalSegment(p);
+    int linkB = portalSegment(space.packedNextSegment(p));
+    if (linkA < 0) {
+      linkA = linkB;
+      linkB = -1;
+    }
+    addPoint(points[2 * p], points[2 * p + 1], linkA, linkB);
+  }
+
+  // Adds the point where the ray from the origin through (x, y) meets segment `s`.
+  private void addIntersection(int s, double x, double y) {
+    double dx = x - ox;
+    double dy = y - oy;
+    double dist = distance(s, dx, dy);
+    addPoint(ox + dist * dx, oy + dist * dy, portalSegment(s), -1);
+  }
+
+  private void addPoint(double x, double y, int linkA, int linkB) {
+    out.addPoint(x, y);
+    out.numPoints[node]++;
+    if (!hasPrev) {
+      firstX = x;
+      firstY = y;
+      firstLinkA = linkA;
+      firstLinkB = linkB;
+    } else {
+      maybeRecurse(prevX, prevY, prevLinkA, prevLinkB, x, y, linkA, linkB);
+    }
+
+    hasPrev = true;
+    prevX = x;
+    prevY = y;
+    prevLinkA = linkA;
+    prevLinkB = linkB;
+  }
+
+  private void maybeRecurse(double ax, double ay, int aLinkA, int aLinkB, double bx, double by,
+      int bLinkA, int bLinkB) {
+    double dx = ax - bx;
+    double dy = ay - by;
+    if (dx * dx + dy * dy < MIN_DELTA_SQUARED) {
+      return;
+    }
+
+    int link = -1;
+    if (aLinkA >= 0 && (aLinkA == bLinkA || aLinkA == bLinkB)) {
+      link = aLinkA;
+    } else if (aLinkB >= 0 && (aLinkB == bLinkA || aLinkB == bLinkB)) {
+      link = aLinkB;
+    }
+    if (link < 0) {
+      return;
+    }
+
+    EnclosedRaycastSpace.PortalLink portalLink = space.packedSegmentRef(link).portalLink();
+    if (visiblePortalLinks != null) {
+      if (!visiblePortalLinks.contains(portalLink)) {
+        return;
+      }
+    } else {
+      int p1 = space.packedPrevPoint(link);
+      if (LineSegment.distanceSquared(points[2 * p1], points[2 * p1 + 1], points[2 * link],
+          points[2 * link + 1], ox, oy) > maxDistanceSquared) {
+        return;
+      }
+    }
+    if (LineSegment.distanceSquared(ax, ay, bx, by, ox, oy) > maxDistanceSquared) {
+      return;
+    }
+
+    if (!policy.admits(portalLink, out.depths[node] + 1, ox, oy, ax, ay, bx, by, maxDistance)) {
+      return;
+    }
+
+    txPoints[0] = ox;
+    txPoints[1] = oy;
+    txPoints[2] = ax;
+    txPoints[3] = ay;
+    txPoints[4] = bx;
+    txPoints[5] = by;
+    portalLink.transform(txPoints, 3);
+
+    int child = out.addNode(node, portalLink.destSpace(), portalLink,
+        portalLink.destSegmentRef().packedIndex());
+    System.arraycopy(txPoints, 0, out.inputs, 6 * child, 6);
+  }
+}
@@ -0,0 +1,104 @@
+package geom;
+
+import java.util.concurrent.atomic.LongAdder;
+import com.google.auto.value.AutoValue;
+
+// Decides when recursion through portals stops, beyond the maximum visibility distance.
+//
+// A sub-trace is culled if it's deeper than maxDepth() portals, or if its occlusion window is
+// narrower than minWindowPixels(). The window's width is taken as its angular width times the
+// trace's maximum distance, which is the widest the sub-trace could ever appear on screen.
+@AutoValue
+public abstract class TracePolicy {
+  private static final TracePolicy UNBOUNDED = builder().build();
+
+  public enum CullReason {
+    DEPTH,
+    WINDOW;
+  }
+
+  // Called for every culled sub-trace. Must be thread-safe if traces run in parallel.
+  @FunctionalInterface
+  public interface CullListener {
+    void culled(EnclosedRaycastSpace.PortalLink portalLink, int depth, double windowPixels,
+        CullReason reason);
+  }
+
+  // Counts culled sub-traces by reason.
+  public static final class CullCounter implements CullListener {
+    private final LongAdder depthCulls = new LongAdder();
+    private final LongAdder windowCulls = new LongAdder();
+
+    @Override
+    public void culled(EnclosedRaycastSpace.PortalLink portalLink, int depth, double windowPixels,
+        CullReason reason) {
+      (reason == CullReason.DEPTH ? depthCulls : windowCulls).increment();
+    }
+
+    public long count(CullReason reason) {
+      return (reason == CullReason.DEPTH ? depthCulls : windowCulls).sum();
+    }
+
+    @Override
+    public String toString() {
+      return "depth=" + depthCulls.sum() + " window=" + windowCulls.sum();
+    }
+  }
+
+  public abstract int maxDepth();
+
+  public abstract double minWindowPixels();
+
+  public abstract CullListener cullListener();
+
+  // A policy that never culls.
+  public static TracePolicy unbounded() {
+    return UNBOUNDED;
+  }
+
+  public abstract Builder toBuilder();
+
+  public static Builder builder() {
+    return new AutoValue_TracePolicy.Builder()
+        .setMaxDepth(Integer.MAX_VALUE)
+        .setMinWindowPixels(0.0)
+        .setCullListener((portalLink, depth, windowPixels, reason) -> {});
+  }
+
+  // Whether a sub-trace through `portalLink` at `depth`, seen through the window from (ox, oy) to
+  // (ax, ay) and (bx, by), should be traced. Reports it if not.
+  boolean admits(EnclosedRaycastSpace.PortalLink portalLink, int depth, double ox, double oy,
+      double ax, double ay, double bx, double by, double maxDistance) {
+    if (depth > maxDepth()) {
+      cullListener().culled(portalLink, depth, Double.NaN, CullReason.DEPTH);
+      return false;
+    }
+
+    if (minWindowPixels() > 0) {
+      double dax = ax - ox;
+      double day = ay - oy;
+      double dbx = bx - ox;
+      double dby = by - oy;
+      double windowPixels =
+          Math.atan2(Math.abs(dax * dby - day * dbx), dax * dbx + day * dby) * maxDistance;
+      if (windowPixels < minWindowPixels()) {
+        cullListener().culled(portalLink, depth, windowPixels, CullReason.WINDOW);
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @AutoValue.Builder
+  public abstract static class Builder {
+
+    public abstract Builder setMaxDepth(int maxDepth);
+
+    public abstract Builder setMinWindowPixels(double minWindowPixels);
+
+    public abstract Builder setCullListener(CullListener cullListener);
+
+    public abstract TracePolicy build();
+
+  }
+}
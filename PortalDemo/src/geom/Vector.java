@@ -43,6 +43,11 @@ public abstract class Vector {
   public Vector multiply(double multiplier) {
     return create(dx() * multiplier, dy() * multiplier);
   }
+
+  public Vector rotate(Angle angle) {
+    return create(dx() * angle.cos() - dy() * angle.sin(),
+        dx() * angle.sin() + dy() * angle.cos());
+  }
   
   public static Vector add(Vector v1, Vector v2) {
     return create(v1.dx() + v2.dx(), v1.dy() + v2.dy());
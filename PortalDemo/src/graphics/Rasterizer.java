@@ -0,0 +1,177 @@
+package graphics;
+
+import java.awt.Graphics2D;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import geom.Polygon;
+
+// A software framebuffer that polygons are scan converted straight into, then drawn to the screen
+// in one go.
+//
+// A pixel is covered if its center is inside the polygon. There's no antialiasing, so polygons
+// that share an edge never both cover a pixel along it, and never leave a gap between them either.
+// Not thread-safe; all scratch space is kept and reused between polygons.
+public final class Rasterizer {
+  private final int width;
+  private final int height;
+  private final BufferedImage image;
+  private final int[] pixels;
+
+  // Device coordinates of the polygon being filled, as x0, y0, x1, y1, ...
+  private double[] coords = new double[0];
+
+  // Each edge covers scanlines [edgeStart, edgeEnd), crossing scanline y's center at
+  // edgeX0 + (y + 0.5 - edgeY0) * edgeSlope.
+  private int[] edgeStart = new int[0];
+  private int[] edgeEnd = new int[0];
+  private double[] edgeX0 = new double[0];
+  private double[] edgeY0 = new double[0];
+  private double[] edgeSlope = new double[0];
+  // Edges ordered by first scanline, each packed as edgeStart << 32 | edge.
+  private long[] edgeOrder = new long[0];
+
+  private int[] active = new int[0];
+  private double[] crossings = new double[0];
+
+  public Rasterizer(int width, int height) {
+    this.width = width;
+    this.height = height;
+    this.image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    this.pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+  }
+
+  public int width() {
+    return width;
+  }
+
+  public int height() {
+    return height;
+  }
+
+  public void clear(int rgb) {
+    Arrays.fill(pixels, rgb);
+  }
+
+  // Fills `polygon`, mapped to pixels by `tx`, with `rgb`.
+  public void fillPolygon(Polygon polygon, AffineTransform tx, int rgb) {
+    int n = polygon.numPoints();
+    if (edgeStart.length < n) {
+      grow(n);
+    }
+    for (int i = 0; i < n; i++) {
+      coords[2 * i] = polygon.point(i).x();
+      coords[2 * i + 1] = polygon.point(i).y();
+    }
+    tx.transform(coords, 0, coords, 0, n);
+
+    int numEdges = buildEdges(n);
+    if (numEdges == 0) {
+      return;
+    }
+    Arrays.sort(edgeOrder, 0, numEdges);
+    scan(numEdges, rgb);
+  }
+
+  private void grow(int n) {
+    int size = Math.max(n, 2 * edgeStart.length);
+    coords = new double[2 * size];
+    edgeStart = new int[size];
+    edgeEnd = new int[size];
+    edgeX0 = new double[size];
+    edgeY0 = new double[size];
+    edgeSlope = new double[size];
+    edgeOrder = new long[size];
+    active = new int[size];
+    crossings = new double[size];
+  }
+
+  // Collects the edges that cross at least one scanline center on screen.
+  private int buildEdges(int n) {
+    int numEdges = 0;
+    for (int i = 0, prev = n - 1; i < n; prev = i++) {
+      double xa = coords[2 * prev];
+      double ya = coords[2 * prev + 1];
+      double xb = coords[2 * i];
+      double yb = coords[2 * i + 1];
+      if (ya == yb) {
+        continue;
+      }
+      if (ya > yb) {
+        double t = xa;
+        xa = xb;
+        xb = t;
+        t = ya;
+        ya = yb;
+        yb = t;
+      }
+
+      // Scanline y is covered if ya <= y + 0.5 < yb.
+      int start = Math.max((int) Math.ceil(ya - 0.5), 0);
+      int end = Math.min((int) Math.ceil(yb - 0.5), height);
+      if (start >= end) {
+        continue;
+      }
+      edgeStart[numEdges] = start;
+      edgeEnd[numEdges] = end;
+      edgeX0[numEdges] = xa;
+      edgeY0[numEdges] = ya;
+      edgeSlope[numEdges] = (xb - xa) / (yb - ya);
+      edgeOrder[numEdges] = (long) start << 32 | numEdges;
+      numEdges++;
+    }
+    return numEdges;
+  }
+
+  private void scan(int numEdges, int rgb) {
+    int next = 0;
+    int numActive = 0;
+    int y = edgeStart[(int) edgeOrder[0]];
+    while (y < height && (numActive > 0 || next < numEdges)) {
+      if (numActive == 0) {
+        y = Math.max(y, edgeStart[(int) edgeOrder[next]]);
+      }
+      while (next < numEdges && edgeStart[(int) edgeOrder[next]] <= y) {
+        active[numActive++] = (int) edgeOrder[next++];
+      }
+
+      // Drop finished edges, and find where the rest cross this scanline, in order.
+      int numCrossings = 0;
+      double center = y + 0.5;
+      int kept = 0;
+      for (int i = 0; i < numActive; i++) {
+        int e = active[i];
+        if (edgeEnd[e] <= y) {
+          continue;
+        }
+        active[kept++] = e;
+
+        double x = edgeX0[e] + (center - edgeY0[e]) * edgeSlope[e];
+        int j = numCrossings++;
+        while (j > 0 && crossings[j - 1] > x) {
+          crossings[j] = crossings[j - 1];
+          j--;
+        }
+        crossings[j] = x;
+      }
+      numActive = kept;
+
+      // Even-odd: pixels whose centers lie between each pair of crossings.
+      int row = y * width;
+      for (int i = 0; i + 1 < numCrossings; i += 2) {
+        int x0 = Math.max((int) Math.ceil(crossings[i] - 0.5), 0);
+        int x1 = Math.min((int) Math.ceil(crossings[i + 1] - 0.5), width);
+        if (x0 < x1) {
+          Arrays.fill(pixels, row + x0, row + x1, rgb);
+        }
+      }
+      y++;
+    }
+  }
+
+  // Draws the framebuffer at the origin of `g2d`.
+  public void blit(Graphics2D g2d) {
+    g2d.drawImage(image, 0, 0, null);
+  }
+}
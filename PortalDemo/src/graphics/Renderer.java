@@ -2,10 +2,31 @@ package graphics;
 
 import java.awt.Color;
 import java.awt.Graphics2D;
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.util.List;
+import geom.Polygon;
 import geom.Rectangle;
 
 public interface Renderer {
   void render(Graphics2D g2d, Rectangle occlusion);
+
+  // Renders every view of one space in a frame: scopes.get(i), in the space's coordinates, is
+  // mapped into g2d's by transforms.get(i). Leaves g2d's transform and clip as they were.
+  //
+  // By default, renders each scope in turn, clipped to it.
+  default void renderBatch(Graphics2D g2d, List<Polygon> scopes,
+      List<AffineTransform> transforms) {
+    AffineTransform tx = g2d.getTransform();
+    Shape clip = g2d.getClip();
+    for (int i = 0; i < scopes.size(); i++) {
+      g2d.transform(transforms.get(i));
+      g2d.clip(scopes.get(i).toShape());
+      render(g2d, scopes.get(i).boundingRect());
+      g2d.setTransform(tx);
+      g2d.setClip(clip);
+    }
+  }
   
   static Renderer forColor(Color color) {
     return SolidColorRenderer.create(color);
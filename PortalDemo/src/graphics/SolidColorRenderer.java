@@ -2,7 +2,12 @@ package graphics;
 
 import java.awt.Color;
 import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Path2D;
+import java.util.List;
 import com.google.auto.value.AutoValue;
+import geom.Polygon;
 import geom.Rectangle;
 
 @AutoValue
@@ -17,6 +22,24 @@ public abstract class SolidColorRenderer implements Renderer {
         (int) occlusion.height() + 1);
   }
 
+  // One fill of all the scopes together, rather than a clip and a fill for each.
+  @Override
+  public void renderBatch(Graphics2D g2d, List<Polygon> scopes,
+      List<AffineTransform> transforms) {
+    Path2D.Double union = new Path2D.Double();
+    for (int i = 0; i < scopes.size(); i++) {
+      union.append(scopes.get(i).toShape().getPathIterator(transforms.get(i)), false);
+    }
+
+    // Clips aren't antialiased, so neither is this, to keep the edges where different spaces
+    // meet looking the same as they did when every scope was clipped.
+    Object antialiasing = g2d.getRenderingHint(RenderingHints.KEY_ANTIALIASING);
+    g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
+    g2d.setColor(color());
+    g2d.fill(union);
+    g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, antialiasing);
+  }
+
   public static SolidColorRenderer create(Color color) {
     return new AutoValue_SolidColorRenderer(color);
   }
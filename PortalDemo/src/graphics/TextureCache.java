@@ -0,0 +1,173 @@
+package graphics;
+
+import java.awt.Graphics2D;
+import java.awt.GraphicsEnvironment;
+import java.awt.Image;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import com.google.auto.value.AutoValue;
+import com.google.common.base.Preconditions;
+import geom.OrientedRectangle;
+import geom.Rectangle;
+
+// Images already scaled to the size they're drawn at in their space, so that drawing one is a blit
+// of whatever part is in view rather than a resample of the whole source image.
+//
+// Space coordinates map to screen pixels one to one before the camera's rotation, so a texture is
+// rendered at one pixel per unit. It's kept unrotated, in the frame of its OrientedRectangle, and
+// the rotation goes into the blit's transform along with the camera's, which costs nothing extra
+// and keeps tiles opaque. Each texture is cut into square tiles, rendered the first time they're
+// drawn; the least recently drawn tiles are dropped once the cache holds more than its budget.
+// Tiles are kept as managed images, which Java2D copies to video memory by itself once they've
+// been drawn a few times.
+public final class TextureCache {
+  public static final long DEFAULT_BUDGET_BYTES = 64L << 20;
+  private static final int TILE_SIZE = 256;
+
+  private static final TextureCache SHARED = new TextureCache(DEFAULT_BUDGET_BYTES);
+
+  @AutoValue
+  abstract static class TileKey {
+    // Images compare by identity.
+    abstract Image image();
+    abstract OrientedRectangle rect();
+    abstract int column();
+    abstract int row();
+
+    static TileKey create(Image image, OrientedRectangle rect, int column, int row) {
+      return new AutoValue_TextureCache_TileKey(image, rect, column, row);
+    }
+  }
+
+  private final long budgetBytes;
+  // In order of last use, least recent first.
+  private final LinkedHashMap<TileKey, BufferedImage> tiles = new LinkedHashMap<>(16, 0.75f, true);
+  private long bytes = 0;
+
+  public TextureCache(long budgetBytes) {
+    Preconditions.checkArgument(budgetBytes > 0, "budgetBytes: %s", budgetBytes);
+    this.budgetBytes = budgetBytes;
+  }
+
+  // The cache ImageRenderers draw through.
+  public static TextureCache shared() {
+    return SHARED;
+  }
+
+  public synchronized long bytes() {
+    return bytes;
+  }
+
+  public synchronized int numTiles() {
+    return tiles.size();
+  }
+
+  public synchronized void clear() {
+    tiles.clear();
+    bytes = 0;
+  }
+
+  // Draws `image`, stretched over `rect` as ImageRenderer does, in the coordinates of `g2d`, but
+  // only the tiles that overlap `occlusion`.
+  public synchronized void draw(Graphics2D g2d, Image image, OrientedRectangle rect,
+      Rectangle occlusion) {
+    Preconditions.checkArgument(image.getWidth(null) > 0 && image.getHeight(null) > 0,
+        "Image not loaded");
+
+    // The texture covers the same pixels as drawImage() would, in the frame of `rect`.
+    Rectangle r = rect.rectangle();
+    int originX = (int) r.x1();
+    int originY = (int) r.y1();
+    int width = (int) r.x2() - originX;
+    int height = (int) r.y2() - originY;
+    if (width <= 0 || height <= 0) {
+      return;
+    }
+
+    AffineTransform rotation = rotation(rect);
+    Rectangle visible;
+    try {
+      visible = occlusion.asPolygon().transform(rotation.createInverse()).boundingRect();
+    } catch (NoninvertibleTransformException ex) {
+      throw new AssertionError(ex);
+    }
+    int firstColumn = Math.max((int) Math.floor((visible.x1() - originX) / TILE_SIZE), 0);
+    int lastColumn =
+        Math.min((int) Math.floor((visible.x2() - originX) / TILE_SIZE), (width - 1) / TILE_SIZE);
+    int firstRow = Math.max((int) Math.floor((visible.y1() - originY) / TILE_SIZE), 0);
+    int lastRow =
+        Math.min((int) Math.floor((visible.y2() - originY) / TILE_SIZE), (height - 1) / TILE_SIZE);
+
+    AffineTransform tx = g2d.getTransform();
+    g2d.transform(rotation);
+    for (int row = firstRow; row <= lastRow; row++) {
+      for (int column = firstColumn; column <= lastColumn; column++) {
+        int x = column * TILE_SIZE;
+        int y = row * TILE_SIZE;
+        BufferedImage tile = tile(TileKey.create(image, rect, column, row), width, height);
+        g2d.drawImage(tile, originX + x, originY + y, null);
+      }
+    }
+    g2d.setTransform(tx);
+  }
+
+  // Renders the tile of `key`'s image scaled to `width` by `height`.
+  private BufferedImage tile(TileKey key, int width, int height) {
+    BufferedImage tile = tiles.get(key);
+    if (tile != null) {
+      return tile;
+    }
+
+    int x = key.column() * TILE_SIZE;
+    int y = key.row() * TILE_SIZE;
+    tile = createTile(Math.min(width - x, TILE_SIZE), Math.min(height - y, TILE_SIZE),
+        key.image() instanceof Transparency ? ((Transparency) key.image()).getTransparency()
+            : Transparency.TRANSLUCENT);
+    Graphics2D g2d = tile.createGraphics();
+    g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+        RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+    g2d.drawImage(key.image(), -x, -y, width - x, height - y, 0, 0, key.image().getWidth(null),
+        key.image().getHeight(null), null);
+    g2d.dispose();
+
+    tiles.put(key, tile);
+    bytes += tileBytes(tile);
+    evict();
+    return tile;
+  }
+
+  // Turns `rect` about its center to its angle.
+  private static AffineTransform rotation(OrientedRectangle rect) {
+    Rectangle r = rect.rectangle();
+    return AffineTransform.getRotateInstance(rect.angle().radians(), r.center().x(),
+        r.center().y());
+  }
+
+  // Drops the least recently used tiles until under budget, always keeping the newest.
+  private void evict() {
+    Iterator<Map.Entry<TileKey, BufferedImage>> it = tiles.entrySet().iterator();
+    while (bytes > budgetBytes && tiles.size() > 1) {
+      bytes -= tileBytes(it.next().getValue());
+      it.remove();
+    }
+  }
+
+  private static BufferedImage createTile(int width, int height, int transparency) {
+    if (GraphicsEnvironment.isHeadless()) {
+      return new BufferedImage(width, height, transparency == Transparency.OPAQUE
+          ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB_PRE);
+    }
+    return GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice()
+        .getDefaultConfiguration().createCompatibleImage(width, height, transparency);
+  }
+
+  private static long tileBytes(BufferedImage tile) {
+    return 4L * tile.getWidth() * tile.getHeight();
+  }
+}
@@ -0,0 +1,50 @@
+package main;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import game.LevelManager;
+
+// Saves PortalLevel, or a generated StressLevel, as a level file for `Main --level`.
+//
+// Usage: ExportLevel <file> [--stress <polygons>] [--spaces <n>]
+//
+// --spaces sets how many rooms the generated level has, joined in portal cycles so that every one
+// can be reached.
+public class ExportLevel {
+  public static void main(String[] args) throws IOException {
+    String file = null;
+    int stressPolygons = 0;
+    int spaces = 1;
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("--stress") && i + 1 < args.length) {
+        stressPolygons = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("--spaces") && i + 1 < args.length) {
+        spaces = Integer.parseInt(args[++i]);
+      } else if (file == null) {
+        file = args[i];
+      } else {
+        file = null;
+        break;
+      }
+    }
+    if (file == null) {
+      throw new IllegalArgumentException(
+          "Usage: ExportLevel <file> [--stress <polygons>] [--spaces <n>]");
+    }
+
+    LevelManager level;
+    if (stressPolygons > 0 || spaces > 1) {
+      StressLevel.Params.Builder params = StressLevel.Params.builder().setNumSpaces(spaces)
+          .setPortalCycles(spaces > 1 ? 1 : 0).setCycleLength(spaces);
+      if (stressPolygons > 0) {
+        params.setPolygonsPerSpace(stressPolygons);
+      }
+      StressLevel stressLevel = StressLevel.generate(params.build());
+      level = LevelManager.discover(stressLevel.world(), stressLevel.start());
+    } else {
+      level = LevelManager.discover(PortalLevel.level(), PortalLevel.START);
+    }
+    level.save(Paths.get(file));
+    System.out.printf("%d rooms%n", level.rooms().size());
+  }
+}
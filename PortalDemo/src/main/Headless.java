@@ -0,0 +1,196 @@
+package main;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Iterator;
+import javax.imageio.ImageIO;
+import game.FrameSnapshot;
+import game.GameState;
+import game.InputRecording;
+import game.InputState;
+import game.KeyState;
+import game.LevelManager;
+import game.Player;
+import geom.RayTrace;
+
+// Renders frames into an offscreen image, without a display, and reports how long each frame's
+// trace and paint took.
+//
+// Usage: Headless [--size <width>x<height>] [--frames <n>] [--warmup <n>] [--recording <file>]
+//     [--stress <polygons>] [--level <file>] [--software] [--png <dir>] [--png-every <n>]
+//
+// Each frame is one tick followed by a render, as in Main, except that every frame is traced
+// afresh: Main reuses the last trace while the player stands still. Input comes from a recording
+// made with `Main --record`, or else the player walks in circles. --stress swaps PortalLevel for a
+// generated level with that many polygons, and --level for one saved with main.ExportLevel.
+// --software fills scopes with the software Rasterizer. --png saves every nth measured frame for
+// diffing against another run.
+public class Headless {
+  private static final double[] PERCENTILES = {50, 90, 99, 100};
+
+  private int width = 1000;
+  private int height = 1000;
+  private int frames = 600;
+  private int warmup = 120;
+  private Path recording = null;
+  private int stressPolygons = 0;
+  private Path level = null;
+  private boolean softwareRendering = false;
+  private Path pngDir = null;
+  private int pngEvery = 60;
+
+  public static void main(String[] args) throws IOException {
+    System.setProperty("java.awt.headless", "true");
+
+    Headless headless = new Headless();
+    headless.parseArgs(args);
+    headless.run();
+  }
+
+  private void parseArgs(String[] args) {
+    for (int i = 0; i < args.length; i += 2) {
+      if (args[i].equals("--software")) {
+        softwareRendering = true;
+        i--;
+        continue;
+      }
+      if (i + 1 >= args.length) {
+        throw new IllegalArgumentException("Missing value for " + args[i]);
+      }
+      String value = args[i + 1];
+      switch (args[i]) {
+        case "--size":
+          String[] size = value.split("x");
+          width = Integer.parseInt(size[0]);
+          height = Integer.parseInt(size[1]);
+          break;
+        case "--frames":
+          frames = Integer.parseInt(value);
+          break;
+        case "--warmup":
+          warmup = Integer.parseInt(value);
+          break;
+        case "--recording":
+          recording = Paths.get(value);
+          break;
+        case "--stress":
+          stressPolygons = Integer.parseInt(value);
+          break;
+        case "--level":
+          level = Paths.get(value);
+          break;
+        case "--png":
+          pngDir = Paths.get(value);
+          break;
+        case "--png-every":
+          pngEvery = Integer.parseInt(value);
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown flag " + args[i]);
+      }
+    }
+  }
+
+  private void run() throws IOException {
+    Iterator<InputState> inputStates;
+    if (recording != null) {
+      inputStates = InputRecording.read(recording).inputStates().iterator();
+    } else {
+      InputState circling = InputState.builder().setPlayerControlUp(KeyState.HELD)
+          .setPlayerControlCameraRight(KeyState.HELD).build();
+      inputStates = new Iterator<InputState>() {
+        @Override
+        public boolean hasNext() {
+          return true;
+        }
+
+        @Override
+        public InputState next() {
+          return circling;
+        }
+      };
+    }
+
+    Player player;
+    if (level != null) {
+      LevelManager levelManager = LevelManager.load(level);
+      player = new Player(levelManager.startRoom().raycastSpace(), levelManager.start());
+    } else if (stressPolygons > 0) {
+      StressLevel stressLevel = StressLevel.generate(
+          StressLevel.Params.builder().setPolygonsPerSpace(stressPolygons).build());
+      player = new Player(stressLevel.world(), stressLevel.start());
+    } else {
+      player = new Player(PortalLevel.level(), PortalLevel.START);
+    }
+    GameState gameState = new GameState(player);
+    gameState.setSoftwareRendering(softwareRendering);
+    if (pngDir != null) {
+      Files.createDirectories(pngDir);
+    }
+
+    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    long[] traceNanos = new long[frames];
+    long[] paintNanos = new long[frames];
+    long[] totalNanos = new long[frames];
+    int measured = 0;
+    for (int frame = -warmup; frame < frames && inputStates.hasNext(); frame++) {
+      gameState.tick(inputStates.next());
+      FrameSnapshot snapshot = gameState.snapshot();
+
+      Graphics2D g2d = image.createGraphics();
+      g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+      long start = System.nanoTime();
+      // Uncached, so frames where the player stands still are timed as traces too, rather than
+      // as cache hits.
+      RayTrace trace = gameState.traceUncached(snapshot);
+      long traced = System.nanoTime();
+      g2d.setColor(Color.black);
+      g2d.fillRect(0, 0, width, height);
+      gameState.paint(g2d, width, height, snapshot, trace);
+      long painted = System.nanoTime();
+      g2d.dispose();
+
+      if (frame < 0) {
+        continue;
+      }
+      traceNanos[measured] = traced - start;
+      paintNanos[measured] = painted - traced;
+      totalNanos[measured] = painted - start;
+      measured++;
+
+      if (pngDir != null && frame % pngEvery == 0) {
+        ImageIO.write(image, "png",
+            pngDir.resolve(String.format("frame-%05d.png", frame)).toFile());
+      }
+    }
+
+    System.out.printf("%d frames at %dx%d%n", measured, width, height);
+    report("trace", traceNanos, measured);
+    report("paint", paintNanos, measured);
+    report("total", totalNanos, measured);
+  }
+
+  private static void report(String phase, long[] nanos, int count) {
+    if (count == 0) {
+      return;
+    }
+    long[] sorted = Arrays.copyOf(nanos, count);
+    Arrays.sort(sorted);
+
+    StringBuilder line = new StringBuilder(String.format("%-6s", phase));
+    for (double percentile : PERCENTILES) {
+      // Nearest rank.
+      int rank = (int) Math.ceil(percentile / 100 * count);
+      line.append(String.format("  %-4s %8.1fus",
+          percentile == 100 ? "max" : "p" + (int) percentile, sorted[Math.max(rank, 1) - 1] / 1e3));
+    }
+    System.out.println(line);
+  }
+}
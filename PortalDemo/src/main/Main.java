@@ -1,34 +1,68 @@
 package main;
 
 import java.awt.BorderLayout;
+import java.awt.Canvas;
 import java.awt.Color;
 import java.awt.Dimension;
+import java.awt.DisplayMode;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.GraphicsDevice;
+import java.awt.GraphicsEnvironment;
 import java.awt.RenderingHints;
+import java.awt.Toolkit;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.NoninvertibleTransformException;
+import java.awt.image.BufferStrategy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 import javax.swing.JFrame;
 import javax.swing.JPanel;
+import javax.swing.Timer;
 import game.GameState;
+import game.InputRecording;
 import game.InputStateManager;
+import game.LevelManager;
 import game.Player;
 import game.TickThread;
-import geom.Point;
 
 public class Main {
+  private static final int DEFAULT_REFRESH_RATE = 60;
+
+  // How long a frame lasts on `device`, or at DEFAULT_REFRESH_RATE if it doesn't say.
+  private static long frameNanos(GraphicsDevice device) {
+    int refreshRate = device.getDisplayMode().getRefreshRate();
+    return TimeUnit.SECONDS.toNanos(1)
+        / (refreshRate == DisplayMode.REFRESH_RATE_UNKNOWN ? DEFAULT_REFRESH_RATE : refreshRate);
+  }
+
+  private static GraphicsDevice defaultScreen() {
+    return GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice();
+  }
+
   private static class MainPanel extends JPanel {
     private static final long serialVersionUID = 1L;
 
-    private final GameState gameState = new GameState(new Player(PortalLevel.level(), Point.create(100, 100)));
+    private final GameState gameState;
     private final TickThread tickThread;
 
-    public MainPanel(InputStateManager inputStateManager) throws NoninvertibleTransformException {
+    public MainPanel(GameState gameState, InputStateManager inputStateManager)
+        throws NoninvertibleTransformException {
+      this.gameState = gameState;
       setDoubleBuffered(true);
       setPreferredSize(new Dimension(1000, 1000));
       
-      this.tickThread = new TickThread(gameState, inputStateManager, () -> repaint());
+      this.tickThread = new TickThread(gameState, inputStateManager);
       new Thread(tickThread).start();
+
+      // Repaint at the display's rate rather than the tick rate, so that frames fall anywhere
+      // between ticks. Swing coalesces repaints it can't keep up with.
+      new Timer((int) TimeUnit.NANOSECONDS.toMillis(frameNanos(defaultScreen())), e -> repaint())
+          .start();
     }
 
     @Override
@@ -40,23 +74,142 @@ public class Main {
       g2d.setColor(Color.black);
       g2d.fillRect(-1, -1, getWidth() + 1, getHeight() + 1);
 
-      gameState.render(g2d, getWidth(), getHeight());
+      gameState.render(g2d, getWidth(), getHeight(), tickThread.frame());
       g2d.setTransform(old);
+    }
+  }
+
+  // Draws on its own thread straight into a BufferStrategy, and presents each frame itself rather
+  // than waiting for Swing to get round to it. Frames are paced by the display the canvas is on,
+  // not by ticks: each is due one refresh after the last, and where show() waits for vertical
+  // sync, that wait takes up the slack instead.
+  private static class ActiveCanvas extends Canvas implements Runnable {
+    private static final long serialVersionUID = 1L;
+
+    private final GameState gameState;
+    private final TickThread tickThread;
+    private final Thread renderThread = new Thread(this, "render");
+
+    public ActiveCanvas(GameState gameState, InputStateManager inputStateManager) {
+      this.gameState = gameState;
+      setIgnoreRepaint(true);
+      // Leave key events to the frame, where the InputStateManager listens.
+      setFocusable(false);
+      setPreferredSize(new Dimension(1000, 1000));
 
-      tickThread.setRepainted(true);
+      this.tickThread = new TickThread(gameState, inputStateManager);
+    }
+
+    // Must be called once the canvas is on screen.
+    public void start() {
+      createBufferStrategy(2);
+      renderThread.start();
+      new Thread(tickThread).start();
+    }
+
+    @Override
+    public void run() {
+      BufferStrategy strategy = getBufferStrategy();
+      long frameNanos = frameNanos(getGraphicsConfiguration().getDevice());
+      long nextFrame = System.nanoTime();
+      while (true) {
+        // The buffers are VolatileImages, which can lose their contents at any time; if they do,
+        // draw the frame again.
+        do {
+          do {
+            Graphics2D g2d = (Graphics2D) strategy.getDrawGraphics();
+            try {
+              g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                  RenderingHints.VALUE_ANTIALIAS_ON);
+              g2d.setColor(Color.black);
+              g2d.fillRect(0, 0, getWidth(), getHeight());
+              gameState.render(g2d, getWidth(), getHeight(), tickThread.frame());
+            } catch (RuntimeException ex) {
+              // As Swing does for a failed paint: report it, and carry on with the next frame,
+              // rather than leave the window frozen while the game ticks on.
+              ex.printStackTrace();
+            } finally {
+              g2d.dispose();
+            }
+          } while (strategy.contentsRestored());
+          strategy.show();
+        } while (strategy.contentsLost());
+        Toolkit.getDefaultToolkit().sync();
+
+        // Falling a frame or more behind starts the schedule over rather than drawing a burst.
+        nextFrame += frameNanos;
+        long wait = nextFrame - System.nanoTime();
+        if (wait > 0) {
+          LockSupport.parkNanos(wait);
+        } else {
+          nextFrame = System.nanoTime();
+        }
+      }
     }
   }
 
-  public static void main(String[] args) throws NoninvertibleTransformException {
+  // Flags:
+  //   --record <file>: save the game's input, for main.Replay to play back.
+  //   --active: draw on a render thread through a BufferStrategy, instead of through Swing.
+  //   --software: fill scopes with the software Rasterizer, instead of through Java2D.
+  //   --level <file>: play a level saved with main.ExportLevel, instead of PortalLevel.
+  public static void main(String[] args) throws NoninvertibleTransformException, IOException {
     JFrame jFrame = new JFrame("Demo");
     jFrame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 
-    InputStateManager inputStateManager = new InputStateManager();
+    Path recording = null;
+    boolean active = false;
+    boolean softwareRendering = false;
+    LevelManager level = null;
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("--record") && i + 1 < args.length && recording == null) {
+        recording = Paths.get(args[++i]);
+      } else if (args[i].equals("--active")) {
+        active = true;
+      } else if (args[i].equals("--software")) {
+        softwareRendering = true;
+      } else if (args[i].equals("--level") && i + 1 < args.length && level == null) {
+        level = LevelManager.load(Paths.get(args[++i]));
+      } else {
+        throw new IllegalArgumentException(
+            "Usage: Main [--record <file>] [--active] [--software] [--level <file>]");
+      }
+    }
+    if (level == null) {
+      level = LevelManager.discover(PortalLevel.level(), PortalLevel.START);
+    }
+
+    InputRecording.Recorder recorder = null;
+    if (recording != null) {
+      recorder = InputRecording.record(recording, level.fingerprint());
+      InputRecording.Recorder toClose = recorder;
+      Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+        try {
+          toClose.close();
+        } catch (IOException ex) {
+          throw new UncheckedIOException(ex);
+        }
+      }));
+    }
+
+    GameState gameState =
+        new GameState(new Player(level.startRoom().raycastSpace(), level.start()));
+    gameState.setSoftwareRendering(softwareRendering);
+    InputStateManager inputStateManager = new InputStateManager(recorder);
     jFrame.addKeyListener(inputStateManager);
     jFrame.setLayout(new BorderLayout());
-    jFrame.add(new MainPanel(inputStateManager), BorderLayout.CENTER);
+    ActiveCanvas activeCanvas = null;
+    if (active) {
+      activeCanvas = new ActiveCanvas(gameState, inputStateManager);
+      jFrame.add(activeCanvas, BorderLayout.CENTER);
+    } else {
+      jFrame.add(new MainPanel(gameState, inputStateManager), BorderLayout.CENTER);
+    }
 
     jFrame.pack();
     jFrame.setVisible(true);
+    if (activeCanvas != null) {
+      activeCanvas.start();
+    }
   }
 }
@@ -9,6 +9,9 @@ import geom.Rectangle;
 import graphics.Renderer;
 
 public class PortalLevel {
+  // Where the player starts, in level().
+  public static final Point START = Point.create(100, 100);
+
   public static EnclosedRaycastSpace level() {
     EnclosedRaycastSpace world =
         new EnclosedRaycastSpace(Rectangle.create(Point.origin(), 2000, 2000).asPolygon(),
@@ -0,0 +1,118 @@
+package main;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import javax.imageio.ImageIO;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import game.FrameSnapshot;
+import game.GameState;
+import game.InputRecording;
+import game.InputState;
+import game.LevelManager;
+import game.Player;
+
+// Plays a recording made with `Main --record` back without a window, as fast as it will go.
+//
+// Usage: Replay <recording> [--level <file>] [--render] [--png <file>]
+//
+// Prints a hash of the player's state after every tick; replays of the same recording always give
+// the same hash. The recording is played on PortalLevel, or with --level on a level saved with
+// main.ExportLevel, and must have been made on that level; recordings from before they kept their
+// level play on either. With --render, every tick is also drawn to an offscreen image the size of
+// Main's window, and the hash covers the final frame's pixels too. --png saves the final frame.
+public class Replay {
+  private static final int WIDTH = 1000;
+  private static final int HEIGHT = 1000;
+
+  public static void main(String[] args) throws IOException {
+    Path recording = null;
+    Path levelPath = null;
+    boolean render = false;
+    Path png = null;
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("--level") && i + 1 < args.length && levelPath == null) {
+        levelPath = Paths.get(args[++i]);
+      } else if (args[i].equals("--render")) {
+        render = true;
+      } else if (args[i].equals("--png") && i + 1 < args.length) {
+        render = true;
+        png = Paths.get(args[++i]);
+      } else if (recording == null) {
+        recording = Paths.get(args[i]);
+      } else {
+        recording = null;
+        break;
+      }
+    }
+    if (recording == null) {
+      throw new IllegalArgumentException(
+          "Usage: Replay <recording> [--level <file>] [--render] [--png <file>]");
+    }
+
+    InputRecording inputRecording = InputRecording.read(recording);
+    LevelManager level = levelPath != null ? LevelManager.load(levelPath)
+        : LevelManager.discover(PortalLevel.level(), PortalLevel.START);
+    Preconditions.checkArgument(!inputRecording.levelFingerprint().isPresent()
+        || inputRecording.levelFingerprint().getAsLong() == level.fingerprint(),
+        "%s was recorded on a different level", recording);
+    ImmutableList<InputState> inputStates = inputRecording.inputStates();
+    GameState gameState =
+        new GameState(new Player(level.startRoom().raycastSpace(), level.start()));
+    BufferedImage image = null;
+    if (render) {
+      image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+    }
+
+    Hasher hasher = Hashing.murmur3_128().newHasher();
+    long tickNanos = 0;
+    long renderNanos = 0;
+    for (InputState inputState : inputStates) {
+      long start = System.nanoTime();
+      gameState.tick(inputState);
+      long ticked = System.nanoTime();
+      tickNanos += ticked - start;
+
+      FrameSnapshot frame = gameState.snapshot();
+      // Spaces have no identity that survives a restart, but their walls do.
+      hasher.putDouble(frame.space().exteriorPolygon().point(0).x())
+          .putDouble(frame.space().exteriorPolygon().point(0).y())
+          .putDouble(frame.position().x()).putDouble(frame.position().y())
+          .putDouble(frame.camera().radians()).putLong(frame.portalCrossings());
+
+      if (image != null) {
+        Graphics2D g2d = image.createGraphics();
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g2d.setColor(Color.black);
+        g2d.fillRect(0, 0, WIDTH, HEIGHT);
+        gameState.render(g2d, WIDTH, HEIGHT, frame);
+        g2d.dispose();
+        renderNanos += System.nanoTime() - ticked;
+      }
+    }
+
+    if (image != null) {
+      for (int pixel : image.getRGB(0, 0, WIDTH, HEIGHT, null, 0, WIDTH)) {
+        hasher.putInt(pixel);
+      }
+      if (png != null) {
+        ImageIO.write(image, "png", png.toFile());
+      }
+    }
+
+    int ticks = inputStates.size();
+    System.out.printf("%d ticks, final position %s%n", ticks, gameState.snapshot().position());
+    System.out.printf("hash %s%n", hasher.hash());
+    System.out.printf("tick %.1fus/tick%n", ticks == 0 ? 0.0 : tickNanos / 1e3 / ticks);
+    if (image != null) {
+      System.out.printf("render %.1fus/frame%n", ticks == 0 ? 0.0 : renderNanos / 1e3 / ticks);
+    }
+  }
+}
@@ -0,0 +1,282 @@
+package main;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import com.google.auto.value.AutoValue;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import geom.EnclosedRaycastSpace;
+import geom.EnclosedRaycastSpace.LineSegmentRef;
+import geom.EnclosedRaycastSpace.PolygonRef;
+import geom.Point;
+import geom.Polygon;
+import graphics.Renderer;
+
+// Generated levels of any size, for measuring how the engine scales.
+//
+// Every space is a square room laid out on a grid of cells, with a regular polygon in some of the
+// cells. Cell (0, 0) is always left empty, so the center of that cell in the first space is a safe
+// place to start. The same Params always produce the same level.
+public final class StressLevel {
+  // The gap between a polygon and the edges of its cell, in multiples of the side length.
+  private static final double CELL_MARGIN = 1.0;
+
+  @AutoValue
+  public abstract static class Params {
+
+    public abstract long seed();
+
+    public abstract int numSpaces();
+
+    public abstract int polygonsPerSpace();
+
+    public abstract int segmentsPerPolygon();
+
+    // The length of every portal-capable segment: the sides of the polygons and the pieces the
+    // room walls are divided into.
+    public abstract double sideLength();
+
+    // Portals from a polygon side in one space to a wall of a random space.
+    public abstract int portalPairs();
+
+    // Flipped portals between two polygon sides, in the same or different spaces.
+    public abstract int flippedPortals();
+
+    // Closed loops of portals through `cycleLength` distinct spaces, each from a polygon side in
+    // one space to a wall of the next. A cycle of length 1 instead joins opposite walls of one
+    // space, making an endless corridor.
+    public abstract int portalCycles();
+
+    public abstract int cycleLength();
+
+    public abstract Builder toBuilder();
+
+    public static Builder builder() {
+      return new AutoValue_StressLevel_Params.Builder()
+          .setSeed(0)
+          .setNumSpaces(1)
+          .setPolygonsPerSpace(16)
+          .setSegmentsPerPolygon(8)
+          .setSideLength(50)
+          .setPortalPairs(0)
+          .setFlippedPortals(0)
+          .setPortalCycles(0)
+          .setCycleLength(1);
+    }
+
+    @AutoValue.Builder
+    public abstract static class Builder {
+
+      public abstract Builder setSeed(long seed);
+
+      public abstract Builder setNumSpaces(int numSpaces);
+
+      public abstract Builder setPolygonsPerSpace(int polygonsPerSpace);
+
+      public abstract Builder setSegmentsPerPolygon(int segmentsPerPolygon);
+
+      public abstract Builder setSideLength(double sideLength);
+
+      public abstract Builder setPortalPairs(int portalPairs);
+
+      public abstract Builder setFlippedPortals(int flippedPortals);
+
+      public abstract Builder setPortalCycles(int portalCycles);
+
+      public abstract Builder setCycleLength(int cycleLength);
+
+      public abstract Params build();
+
+    }
+
+  }
+
+  // The free segments of one space, which portals are drawn from.
+  private static final class Space {
+    private final EnclosedRaycastSpace space;
+    private final List<LineSegmentRef> freeSides = new ArrayList<>();
+    private final List<LineSegmentRef> freeWalls = new ArrayList<>();
+
+    private Space(EnclosedRaycastSpace space) {
+      this.space = space;
+      freeWalls.addAll(space.exteriorPolygonRef().lineSegmentRefs());
+    }
+  }
+
+  private final Params params;
+  private final ImmutableList<EnclosedRaycastSpace> spaces;
+  private final Random random;
+  private final double polygonRadius;
+  private final double cellSize;
+  private final int gridSize;
+  private final int segmentsPerWall;
+
+  private StressLevel(Params params) {
+    Preconditions.checkArgument(params.numSpaces() >= 1, "no spaces");
+    Preconditions.checkArgument(params.polygonsPerSpace() >= 0);
+    Preconditions.checkArgument(params.segmentsPerPolygon() >= 3, "polygons need 3 sides");
+    Preconditions.checkArgument(params.sideLength() >= 30, "sides too short for portals");
+    Preconditions.checkArgument(params.portalPairs() >= 0);
+    Preconditions.checkArgument(params.flippedPortals() >= 0);
+    Preconditions.checkArgument(params.portalCycles() >= 0);
+    Preconditions.checkArgument(
+        params.cycleLength() >= 1 && params.cycleLength() <= params.numSpaces(),
+        "cycle length %s with %s spaces", params.cycleLength(), params.numSpaces());
+
+    this.params = params;
+    this.random = new Random(params.seed());
+    // Rounded up a hair, so that sides of exactly the minimum portal size don't come out under it.
+    this.polygonRadius = (1 + 1e-9) * params.sideLength()
+        / (2 * Math.sin(Math.PI / params.segmentsPerPolygon()));
+    // Whole multiples of the side length, so that the walls divide evenly.
+    this.cellSize = params.sideLength() * Math.ceil(2 * polygonRadius / params.sideLength()
+        + 2 * CELL_MARGIN);
+    this.gridSize = (int) Math.ceil(Math.sqrt(params.polygonsPerSpace() + 1));
+    this.segmentsPerWall = (int) Math.round(gridSize * cellSize / params.sideLength());
+
+    List<Space> spaces = IntStream.range(0, params.numSpaces()).mapToObj(i -> buildSpace())
+        .collect(Collectors.toList());
+    // The most constrained portals go first.
+    for (int i = 0; i < params.portalCycles(); i++) {
+      addCycle(spaces);
+    }
+    for (int i = 0; i < params.portalPairs(); i++) {
+      EnclosedRaycastSpace.createPortal(takeSide(randomSpace(spaces)),
+          take(randomSpace(spaces).freeWalls));
+    }
+    for (int i = 0; i < params.flippedPortals(); i++) {
+      EnclosedRaycastSpace.createFlippedPortal(takeSide(randomSpace(spaces)),
+          takeSide(randomSpace(spaces)));
+    }
+    this.spaces = spaces.stream().map(s -> s.space).collect(ImmutableList.toImmutableList());
+  }
+
+  public static StressLevel generate(Params params) {
+    return new StressLevel(params);
+  }
+
+  public Params params() {
+    return params;
+  }
+
+  // The space to start in.
+  public EnclosedRaycastSpace world() {
+    return spaces.get(0);
+  }
+
+  public ImmutableList<EnclosedRaycastSpace> spaces() {
+    return spaces;
+  }
+
+  // The center of the world's empty corner cell.
+  public Point start() {
+    return Point.create(cellSize / 2, cellSize / 2);
+  }
+
+  private Space buildSpace() {
+    // Clockwise, like the polygons, so that unflipped portals lead from outside a polygon to
+    // inside the room.
+    double size = segmentsPerWall * params.sideLength();
+    Polygon.Builder walls = Polygon.builder();
+    for (int i = 0; i < segmentsPerWall; i++) {
+      walls.addPoint(i * params.sideLength(), 0);
+    }
+    for (int i = 0; i < segmentsPerWall; i++) {
+      walls.addPoint(size, i * params.sideLength());
+    }
+    for (int i = 0; i < segmentsPerWall; i++) {
+      walls.addPoint(size - i * params.sideLength(), size);
+    }
+    for (int i = 0; i < segmentsPerWall; i++) {
+      walls.addPoint(0, size - i * params.sideLength());
+    }
+    Space space = new Space(new EnclosedRaycastSpace(walls.build(),
+        Renderer.forColor(Color.getHSBColor(random.nextFloat(), 0.6f, 0.9f))));
+
+    List<Integer> cells = IntStream.range(1, gridSize * gridSize).boxed()
+        .collect(Collectors.toList());
+    Collections.shuffle(cells, random);
+    for (int cell : cells.subList(0, params.polygonsPerSpace())) {
+      PolygonRef ref = space.space.addInteriorRaycastPolygon(
+          polygonAt(cell % gridSize, cell / gridSize));
+      space.freeSides.addAll(ref.lineSegmentRefs());
+    }
+    return space;
+  }
+
+  // A regular polygon in cell (x, y), shifted and rotated at random within the cell's margin.
+  private Polygon polygonAt(int x, int y) {
+    double slack = CELL_MARGIN * params.sideLength();
+    double cx = (x + 0.5) * cellSize + (random.nextDouble() - 0.5) * slack;
+    double cy = (y + 0.5) * cellSize + (random.nextDouble() - 0.5) * slack;
+    double step = 2 * Math.PI / params.segmentsPerPolygon();
+    double rotation = random.nextDouble() * step;
+
+    Polygon.Builder builder = Polygon.builder();
+    for (int i = 0; i < params.segmentsPerPolygon(); i++) {
+      double angle = rotation + i * step;
+      builder.addPoint(cx + polygonRadius * Math.cos(angle), cy + polygonRadius * Math.sin(angle));
+    }
+    return builder.build();
+  }
+
+  private void addCycle(List<Space> spaces) {
+    if (params.cycleLength() == 1) {
+      addCorridor(randomSpace(spaces));
+      return;
+    }
+
+    List<Space> cycle = new ArrayList<>(spaces);
+    Collections.shuffle(cycle, random);
+    cycle = cycle.subList(0, params.cycleLength());
+    for (int i = 0; i < cycle.size(); i++) {
+      EnclosedRaycastSpace.createPortal(takeSide(cycle.get(i)),
+          take(cycle.get((i + 1) % cycle.size()).freeWalls));
+    }
+  }
+
+  // Joins a piece of the top wall with the piece of the bottom wall directly across from it.
+  private void addCorridor(Space space) {
+    // Wall segment i runs from point i - 1 to point i, so the top wall is segments 1 through n and
+    // the bottom wall is segments 2n + 1 through 3n, right to left.
+    List<Integer> candidates = IntStream.rangeClosed(1, segmentsPerWall).boxed()
+        .collect(Collectors.toList());
+    Collections.shuffle(candidates, random);
+    for (int top : candidates) {
+      LineSegmentRef a = space.space.exteriorPolygonRef().lineSegmentRef(top);
+      LineSegmentRef b =
+          space.space.exteriorPolygonRef().lineSegmentRef(3 * segmentsPerWall + 1 - top);
+      if (space.freeWalls.contains(a) && space.freeWalls.contains(b)) {
+        space.freeWalls.remove(a);
+        space.freeWalls.remove(b);
+        EnclosedRaycastSpace.createFlippedPortal(a, b);
+        return;
+      }
+    }
+    throw new IllegalArgumentException("no room for another corridor");
+  }
+
+  private Space randomSpace(List<Space> spaces) {
+    return spaces.get(random.nextInt(spaces.size()));
+  }
+
+  private LineSegmentRef takeSide(Space space) {
+    Preconditions.checkArgument(!space.freeSides.isEmpty(), "too many portals for the polygons");
+    return take(space.freeSides);
+  }
+
+  private LineSegmentRef take(List<LineSegmentRef> free) {
+    Preconditions.checkArgument(!free.isEmpty(), "too many portals for the walls");
+    // Swap-remove: the order of the free list doesn't matter, only that it's deterministic.
+    int i = random.nextInt(free.size());
+    LineSegmentRef taken = free.get(i);
+    free.set(i, free.get(free.size() - 1));
+    free.remove(free.size() - 1);
+    return taken;
+  }
+}
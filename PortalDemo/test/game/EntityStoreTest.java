@@ -0,0 +1,177 @@
+package game;
+
+import static com.google.common.truth.Truth.assertThat;
+import java.awt.Color;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.Before;
+import org.junit.Test;
+import geom.EnclosedRaycastSpace;
+import geom.LineSegment;
+import geom.Point;
+import geom.Rectangle;
+import geom.Vector;
+import graphics.Renderer;
+import main.StressLevel;
+
+public class EntityStoreTest {
+  private static final double RADIUS = 10;
+
+  private EnclosedRaycastSpace left;
+  private EnclosedRaycastSpace right;
+  private final EntityStore entityStore = new EntityStore(RADIUS);
+
+  // Two 200 by 200 rooms, around (0, 0) and (1000, 0). A portal turns the left room's right wall
+  // into the right room's bottom wall: (100, y) comes out at (1000 - y, -100), and moving right
+  // comes out moving up.
+  @Before
+  public void setUp() {
+    left = new EnclosedRaycastSpace(Rectangle.create(Point.origin(), 200, 200).asPolygon(),
+        Renderer.forColor(Color.green));
+    right = new EnclosedRaycastSpace(
+        Rectangle.create(Point.create(1000, 0), 200, 200).asPolygon(),
+        Renderer.forColor(Color.blue));
+    EnclosedRaycastSpace.createFlippedPortal(left.exteriorPolygonRef().lineSegmentRef(3),
+        right.exteriorPolygonRef().lineSegmentRef(0));
+  }
+
+  private void assertPosition(int id, double x, double y) {
+    assertThat(entityStore.position(id).x()).isWithin(0.01).of(x);
+    assertThat(entityStore.position(id).y()).isWithin(0.01).of(y);
+  }
+
+  private void assertVelocity(int id, double vx, double vy) {
+    assertThat(entityStore.velocity(id).dx()).isWithin(1e-9).of(vx);
+    assertThat(entityStore.velocity(id).dy()).isWithin(1e-9).of(vy);
+  }
+
+  // The distance from `p` to the nearest wall of `space`.
+  private static double clearance(EnclosedRaycastSpace space, Point p) {
+    return space.polygonRefs().flatMap(r -> r.lineSegmentRefs().stream())
+        .filter(s -> !s.hasPortalLink())
+        .mapToDouble(s -> Math.sqrt(LineSegment.distanceSquared(s.lineSegment(), p)))
+        .min().getAsDouble();
+  }
+
+  @Test
+  public void testBounces() {
+    int id = entityStore.add(left, Point.origin(), Vector.create(-25, 0));
+    for (int tick = 0; tick < 3; tick++) {
+      entityStore.tick();
+    }
+    assertPosition(id, -75, 0);
+
+    // Touches the left wall 60% of the way, and spends the rest of the tick heading back.
+    entityStore.tick();
+    assertPosition(id, -80, 0);
+    assertVelocity(id, 25, 0);
+    assertThat(entityStore.space(id)).isSameAs(left);
+  }
+
+  @Test
+  public void testBouncesAroundRoom() {
+    EnclosedRaycastSpace room = new EnclosedRaycastSpace(
+        Rectangle.create(Point.origin(), 200, 100).asPolygon(), Renderer.forColor(Color.green));
+    int id = entityStore.add(room, Point.create(-70, 0), Vector.create(-7, 3));
+    for (int tick = 0; tick < 2000; tick++) {
+      entityStore.tick();
+
+      assertThat(entityStore.space(id)).isSameAs(room);
+      assertThat(clearance(room, entityStore.position(id))).isAtLeast(RADIUS);
+      assertThat(entityStore.velocity(id).magnitude()).isWithin(1e-9).of(Math.sqrt(58));
+    }
+  }
+
+  @Test
+  public void testThroughPortal() {
+    // Crosses at (100, 20) 80% of the way, and spends the rest of the tick moving up.
+    int id = entityStore.add(left, Point.create(60, 20), Vector.create(50, 0));
+    entityStore.tick();
+
+    assertThat(entityStore.space(id)).isSameAs(right);
+    assertPosition(id, 980, -90);
+    assertVelocity(id, 0, 50);
+
+    entityStore.tick();
+    assertPosition(id, 980, -40);
+  }
+
+  @Test
+  public void testHandover() {
+    int through = entityStore.add(left, Point.create(60, 20), Vector.create(50, 0));
+    int still = entityStore.add(left, Point.create(-50, -50), Vector.zero());
+    int slow = entityStore.add(left, Point.create(0, 50), Vector.create(0, 1));
+    int back = entityStore.add(right, Point.create(1000, -80), Vector.create(0, -30));
+    int stay = entityStore.add(right, Point.create(1000, 50), Vector.create(10, 0));
+    entityStore.tick();
+
+    // Each group loses one entity and gains the other's, and the ones left behind keep their ids.
+    assertThat(entityStore.size()).isEqualTo(5);
+    assertThat(entityStore.space(through)).isSameAs(right);
+    assertPosition(through, 980, -90);
+    assertThat(entityStore.space(back)).isSameAs(left);
+    assertPosition(back, 90, 0);
+    assertVelocity(back, -30, 0);
+    assertThat(entityStore.space(still)).isSameAs(left);
+    assertPosition(still, -50, -50);
+    assertPosition(slow, 0, 51);
+    assertThat(entityStore.space(stay)).isSameAs(right);
+    assertPosition(stay, 1010, 50);
+
+    entityStore.remove(still);
+    entityStore.remove(stay);
+    entityStore.tick();
+
+    assertThat(entityStore.contains(still)).isFalse();
+    assertThat(entityStore.size()).isEqualTo(3);
+    assertPosition(through, 980, -40);
+    assertPosition(back, 60, 0);
+    assertPosition(slow, 0, 52);
+  }
+
+  private static EntityStore randomEntities(List<EnclosedRaycastSpace> spaces, Point start) {
+    EntityStore entityStore = new EntityStore(5);
+    Random random = new Random(1);
+    for (int i = 0; i < 500; i++) {
+      double angle = random.nextDouble() * 2 * Math.PI;
+      double speed = 1 + random.nextDouble() * (i % 10 == 0 ? 60 : 4);
+      entityStore.add(spaces.get(0),
+          start.translate(random.nextDouble() * 40 - 20, random.nextDouble() * 40 - 20),
+          Vector.create(Math.cos(angle) * speed, Math.sin(angle) * speed));
+    }
+    return entityStore;
+  }
+
+  @Test
+  public void testParallelMatchesSerial() {
+    StressLevel level = StressLevel.generate(StressLevel.Params.builder().setSeed(3)
+        .setNumSpaces(6).setPolygonsPerSpace(64).setPortalPairs(12).setFlippedPortals(6)
+        .setPortalCycles(3).setCycleLength(3).build());
+    EntityStore serial = randomEntities(level.spaces(), level.start());
+    EntityStore parallel = randomEntities(level.spaces(), level.start());
+    ForkJoinPool pool = new ForkJoinPool(4);
+    Set<EnclosedRaycastSpace> visited = new HashSet<>();
+    try {
+      for (int tick = 0; tick < 500; tick++) {
+        serial.tick();
+        parallel.tick(pool);
+        for (int id = 0; id < serial.size(); id++) {
+          visited.add(serial.space(id));
+        }
+      }
+    } finally {
+      pool.shutdown();
+    }
+
+    // Not just close: the same, bit for bit.
+    for (int id = 0; id < serial.size(); id++) {
+      assertThat(parallel.space(id)).isSameAs(serial.space(id));
+      assertThat(parallel.position(id)).isEqualTo(serial.position(id));
+      assertThat(parallel.velocity(id)).isEqualTo(serial.velocity(id));
+    }
+    assertThat(visited.size()).isGreaterThan(1);
+  }
+}
@@ -0,0 +1,230 @@
+package game;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import com.google.common.collect.ImmutableList;
+
+public class InputRecordingTest {
+  private static final long LEVEL = 0x0123456789ABCDEFL;
+  // The magic number, the version, and LEVEL.
+  private static final byte[] HEADER = {'P', 'D', 'I', 'R', 2,
+      0x01, 0x23, 0x45, 0x67, (byte) 0x89, (byte) 0xAB, (byte) 0xCD, (byte) 0xEF};
+
+  private static byte[] write(List<InputState> inputStates) throws IOException {
+    Path path = Files.createTempFile("recording", ".pdir");
+    try {
+      try (InputRecording.Recorder recorder = InputRecording.record(path, LEVEL)) {
+        inputStates.forEach(recorder::record);
+      }
+      return Files.readAllBytes(path);
+    } finally {
+      Files.delete(path);
+    }
+  }
+
+  private static ImmutableList<InputState> read(byte[] bytes) throws IOException {
+    InputRecording inputRecording = InputRecording.read(new ByteArrayInputStream(bytes));
+    assertThat(inputRecording.levelFingerprint().getAsLong()).isEqualTo(LEVEL);
+    return inputRecording.inputStates();
+  }
+
+  private static byte[] concat(byte[] a, int... b) {
+    byte[] bytes = Arrays.copyOf(a, a.length + b.length);
+    for (int i = 0; i < b.length; i++) {
+      bytes[a.length + i] = (byte) b[i];
+    }
+    return bytes;
+  }
+
+  private static int[] varint(long value) {
+    List<Integer> bytes = new ArrayList<>();
+    while ((value & ~0x7FL) != 0) {
+      bytes.add((int) (value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    bytes.add((int) value);
+    return bytes.stream().mapToInt(b -> b).toArray();
+  }
+
+  @Test
+  public void testEmpty() throws IOException {
+    byte[] bytes = write(Collections.emptyList());
+
+    assertThat(bytes).isEqualTo(HEADER);
+    assertThat(read(bytes)).isEmpty();
+  }
+
+  @Test
+  public void testLongRuns() throws IOException {
+    InputState up = InputState.fromMasks(1 << 3, 0);
+    InputState left = InputState.fromMasks(1, 1);
+    for (int runLength : new int[] {1, 127, 128, 255, 16383, 16384, 300000}) {
+      List<InputState> inputStates = new ArrayList<>(Collections.nCopies(runLength, up));
+      inputStates.add(left);
+
+      assertThat(read(write(inputStates))).isEqualTo(inputStates);
+    }
+  }
+
+  @Test
+  public void testVarintEncoding() throws IOException {
+    InputState up = InputState.fromMasks(1 << 3, 0);
+
+    assertThat(write(Collections.nCopies(127, up))).isEqualTo(concat(HEADER, 127, 0, 8));
+    assertThat(write(Collections.nCopies(128, up))).isEqualTo(concat(HEADER, 0x80, 1, 0, 8));
+    assertThat(write(Collections.nCopies(300, up)))
+        .isEqualTo(concat(HEADER, 0xAC, 0x02, 0, 8));
+  }
+
+  @Test
+  public void testRandomTicks() throws IOException {
+    Random random = new Random(1);
+    List<InputState> inputStates = new ArrayList<>();
+    for (int run = 0; run < 1000; run++) {
+      InputState inputState = InputState.fromMasks(random.nextInt(1 << 12));
+      inputStates.addAll(Collections.nCopies(1 + random.nextInt(400), inputState));
+    }
+
+    assertThat(read(write(inputStates))).isEqualTo(inputStates);
+  }
+
+  @Test
+  public void testVersion1() throws IOException {
+    // Recordings from before the level was kept are still read, without a level.
+    InputRecording inputRecording = InputRecording.read(
+        new ByteArrayInputStream(new byte[] {'P', 'D', 'I', 'R', 1, (byte) 0xAC, 0x02, 0, 8}));
+
+    assertThat(inputRecording.levelFingerprint().isPresent()).isFalse();
+    assertThat(inputRecording.inputStates())
+        .isEqualTo(Collections.nCopies(300, InputState.fromMasks(1 << 3, 0)));
+  }
+
+  @Test
+  public void testBadMagic() throws IOException {
+    try {
+      read(new byte[] {'P', 'D', 'I', 'X', 1});
+      fail();
+    } catch (IOException e) {
+      assertThat(e).hasMessageThat().isEqualTo("Not an input recording");
+    }
+  }
+
+  @Test
+  public void testBadVersion() throws IOException {
+    try {
+      read(new byte[] {'P', 'D', 'I', 'R', 9});
+      fail();
+    } catch (IOException e) {
+      assertThat(e).hasMessageThat().isEqualTo("Unsupported input recording version 9");
+    }
+  }
+
+  @Test
+  public void testBadMasks() throws IOException {
+    try {
+      read(concat(HEADER, 1, 0x10, 0));
+      fail();
+    } catch (IOException e) {
+      assertThat(e).hasMessageThat().isEqualTo("Corrupt input recording");
+    }
+  }
+
+  @Test
+  public void testTooManyTicks() throws IOException {
+    // A run longer than a recording can be, one as long as a long can be, and one past that.
+    for (long runLength : new long[] {InputRecording.MAX_TICKS + 1L, Long.MAX_VALUE, -1}) {
+      try {
+        read(concat(concat(HEADER, varint(runLength)), 0, 8));
+        fail();
+      } catch (IOException e) {
+        assertThat(e).hasMessageThat().isEqualTo("Corrupt input recording");
+      }
+    }
+
+    // Runs that are each short enough, but too long together.
+    int[] half = varint(InputRecording.MAX_TICKS / 2 + 1);
+    try {
+      read(concat(concat(concat(concat(HEADER, half), 0, 8), half), 0, 1));
+      fail();
+    } catch (IOException e) {
+      assertThat(e).hasMessageThat().isEqualTo("Corrupt input recording");
+    }
+  }
+
+  @Test
+  public void testOverlongVarint() throws IOException {
+    // Bits past the 64th, and an eleventh byte.
+    for (int[] runLength : new int[][] {{0x81, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80,
+        0x02}, {0x81, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x00}}) {
+      try {
+        read(concat(concat(HEADER, runLength), 0, 8));
+        fail();
+      } catch (IOException e) {
+        assertThat(e).hasMessageThat().isEqualTo("Corrupt input recording");
+      }
+    }
+  }
+
+  @Test
+  public void testWriteFailure() throws IOException {
+    IOException full = new IOException("Disk full");
+    OutputStream failing = new OutputStream() {
+      @Override
+      public void write(int b) throws IOException {
+        throw full;
+      }
+    };
+
+    // Recording keeps going quietly until it's closed.
+    InputRecording.Recorder recorder = InputRecording.record(failing, LEVEL);
+    for (int tick = 0; tick < 100000; tick++) {
+      recorder.record(InputState.fromMasks(tick % 2, 0));
+    }
+    try {
+      recorder.close();
+      fail();
+    } catch (IOException e) {
+      assertThat(e).isSameAs(full);
+    }
+    recorder.close();
+  }
+
+  @Test
+  public void testTruncated() throws IOException {
+    InputState up = InputState.fromMasks(1 << 3, 0);
+    InputState left = InputState.fromMasks(1, 1);
+    List<InputState> inputStates = new ArrayList<>(Collections.nCopies(200, up));
+    inputStates.addAll(Collections.nCopies(3, left));
+    byte[] bytes = write(inputStates);
+
+    // Only cuts between runs leave a readable recording, of the runs before the cut.
+    for (int length = 0; length < bytes.length; length++) {
+      ImmutableList<InputState> expected;
+      if (length == HEADER.length) {
+        expected = ImmutableList.of();
+      } else if (length == HEADER.length + 4) {
+        expected = ImmutableList.copyOf(inputStates.subList(0, 200));
+      } else {
+        expected = null;
+      }
+
+      try {
+        assertThat(read(Arrays.copyOf(bytes, length))).isEqualTo(expected);
+      } catch (EOFException e) {
+        assertThat(expected).isNull();
+      }
+    }
+  }
+}
@@ -0,0 +1,141 @@
+package game;
+
+import static com.google.common.truth.Truth.assertThat;
+import java.awt.Canvas;
+import java.awt.event.KeyEvent;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+
+public class InputStateManagerTest {
+  // Key codes for each key of InputState.keyStateList(), then one the game ignores.
+  private static final int[][] KEY_CODES = {{KeyEvent.VK_A, KeyEvent.VK_LEFT},
+      {KeyEvent.VK_D, KeyEvent.VK_RIGHT}, {KeyEvent.VK_S, KeyEvent.VK_DOWN},
+      {KeyEvent.VK_W, KeyEvent.VK_UP}, {KeyEvent.VK_Q}, {KeyEvent.VK_E}, {KeyEvent.VK_X}};
+
+  private static final Canvas SOURCE = new Canvas();
+
+  // The semantics of the synchronized InputStateManager that the ring replaced, key by key: an
+  // event sets PRESSED or UNPRESSED unless the key is already settled that way, and a key left
+  // alone for a tick moves on to HELD or UNHELD.
+  private static final class Reference {
+    private final KeyState[] previous = new KeyState[6];
+    private final KeyState[] current = new KeyState[6];
+
+    private Reference() {
+      Arrays.fill(previous, KeyState.UNHELD);
+      Arrays.fill(current, KeyState.UNHELD);
+    }
+
+    private void event(int key, boolean press) {
+      if (key >= current.length) {
+        return;
+      }
+      KeyState old = current[key];
+      if (press ? old != KeyState.HELD : old != KeyState.UNHELD) {
+        current[key] = press ? KeyState.PRESSED : KeyState.UNPRESSED;
+      }
+    }
+
+    private InputState tick() {
+      for (int key = 0; key < current.length; key++) {
+        if (current[key] == previous[key] && current[key] == KeyState.PRESSED) {
+          current[key] = KeyState.HELD;
+        } else if (current[key] == previous[key] && current[key] == KeyState.UNPRESSED) {
+          current[key] = KeyState.UNHELD;
+        }
+      }
+      System.arraycopy(current, 0, previous, 0, current.length);
+      return InputState.builder().setKeyStateList(Arrays.asList(current)).build();
+    }
+  }
+
+  private final InputStateManager inputStateManager = new InputStateManager();
+  private final Reference reference = new Reference();
+  private final Random random = new Random(1);
+  // Events sent since the last tick, to tell which ones the ring has room for.
+  private int pending = 0;
+
+  private void randomEvent() {
+    int key = random.nextInt(KEY_CODES.length);
+    int[] codes = KEY_CODES[key];
+    KeyEvent e = new KeyEvent(SOURCE, 0, 0, 0, codes[random.nextInt(codes.length)],
+        KeyEvent.CHAR_UNDEFINED);
+    boolean press = random.nextBoolean();
+    if (press) {
+      inputStateManager.keyPressed(e);
+    } else {
+      inputStateManager.keyReleased(e);
+    }
+
+    // Ignored keys don't take up room in the ring; a full ring drops the event.
+    if (key < 6 && pending++ >= InputStateManager.RING_SIZE) {
+      return;
+    }
+    reference.event(key, press);
+  }
+
+  private void assertTick() {
+    pending = 0;
+    InputState inputState = inputStateManager.nextInputState();
+    assertThat(inputState).isEqualTo(reference.tick());
+    assertThat(inputState).isSameAs(InputState.fromMasks(inputState.masks()));
+  }
+
+  @Test
+  public void testMatchesReference() {
+    for (int tick = 0; tick < 20000; tick++) {
+      int events = random.nextInt(6);
+      for (int i = 0; i < events; i++) {
+        randomEvent();
+      }
+      assertTick();
+    }
+  }
+
+  @Test
+  public void testWrapsAround() {
+    // Nearly fills the ring every tick, so its indices wrap many times over.
+    for (int tick = 0; tick < 100; tick++) {
+      for (int i = 0; i < InputStateManager.RING_SIZE - 1; i++) {
+        randomEvent();
+      }
+      assertTick();
+    }
+  }
+
+  @Test
+  public void testFullRingDropsNewestEvents() {
+    for (int tick = 0; tick < 20; tick++) {
+      for (int i = 0; i < 3 * InputStateManager.RING_SIZE; i++) {
+        randomEvent();
+      }
+      assertTick();
+      // Draining the ring makes room again.
+      for (int i = 0; i < 10; i++) {
+        randomEvent();
+      }
+      assertTick();
+    }
+  }
+
+  @Test
+  public void testFullRingKeepsState() {
+    KeyEvent left = new KeyEvent(SOURCE, 0, 0, 0, KeyEvent.VK_LEFT, KeyEvent.CHAR_UNDEFINED);
+    KeyEvent up = new KeyEvent(SOURCE, 0, 0, 0, KeyEvent.VK_UP, KeyEvent.CHAR_UNDEFINED);
+    for (int i = 0; i < InputStateManager.RING_SIZE / 2; i++) {
+      inputStateManager.keyPressed(left);
+      inputStateManager.keyReleased(left);
+    }
+    inputStateManager.keyPressed(up);
+
+    InputState inputState = inputStateManager.nextInputState();
+    assertThat(inputState.playerControlLeft()).isEqualTo(KeyState.UNPRESSED);
+    assertThat(inputState.playerControlUp()).isEqualTo(KeyState.UNHELD);
+
+    inputStateManager.keyPressed(up);
+    inputState = inputStateManager.nextInputState();
+    assertThat(inputState.playerControlLeft()).isEqualTo(KeyState.UNHELD);
+    assertThat(inputState.playerControlUp()).isEqualTo(KeyState.PRESSED);
+  }
+}
@@ -0,0 +1,197 @@
+package game;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+import geom.EnclosedRaycastSpace;
+import graphics.SolidColorRenderer;
+import main.PortalLevel;
+import main.StressLevel;
+
+public class LevelManagerTest {
+  // The size of a portal record: three ints for each end, then the flipped byte.
+  private static final int PORTAL_BYTES = 25;
+
+  private static LevelManager portalLevel() {
+    return LevelManager.discover(PortalLevel.level(), PortalLevel.START);
+  }
+
+  private static byte[] save(LevelManager levelManager) throws IOException {
+    Path path = Files.createTempFile("level", ".pdlv");
+    try {
+      levelManager.save(path);
+      return Files.readAllBytes(path);
+    } finally {
+      Files.delete(path);
+    }
+  }
+
+  private static LevelManager read(byte[] bytes) throws IOException {
+    return LevelManager.read(ByteBuffer.wrap(bytes));
+  }
+
+  // Everything a level file keeps, one line per room, polygon and portal end, with polygons and
+  // segments named by where they are in the level.
+  private static List<String> describe(LevelManager levelManager) {
+    Map<EnclosedRaycastSpace.PolygonRef, String> names = new IdentityHashMap<>();
+    for (int r = 0; r < levelManager.rooms().size(); r++) {
+      int room = r;
+      levelManager.rooms().get(r).raycastSpace().polygonRefs()
+          .forEachOrdered(p -> names.put(p, room + "/" + names.size()));
+    }
+
+    List<String> lines = new ArrayList<>();
+    lines.add("start " + levelManager.start());
+    for (Room room : levelManager.rooms()) {
+      EnclosedRaycastSpace space = room.raycastSpace();
+      lines.add("room " + room.id() + " "
+          + ((SolidColorRenderer) space.renderer()).color().getRGB());
+      space.polygonRefs().forEachOrdered(p -> {
+        lines.add("polygon " + names.get(p) + " " + p.polygon().points());
+        for (EnclosedRaycastSpace.LineSegmentRef ls : p.lineSegmentRefs()) {
+          if (ls.hasPortalLink()) {
+            EnclosedRaycastSpace.LineSegmentRef dest = ls.portalLink().destSegmentRef();
+            lines.add("portal " + names.get(p) + "/" + ls.index() + " to "
+                + names.get(dest.polygonRef()) + "/" + dest.index()
+                + (ls.portalLink().flipped() ? " flipped" : ""));
+          }
+        }
+      });
+    }
+    return lines;
+  }
+
+  private static void assertCorrupt(byte[] bytes, String message) {
+    try {
+      read(bytes);
+      fail();
+    } catch (IOException e) {
+      assertThat(e).hasMessageThat().isEqualTo(message);
+    }
+  }
+
+  private static byte[] withInt(byte[] bytes, int offset, int value) {
+    byte[] copy = bytes.clone();
+    ByteBuffer.wrap(copy).putInt(offset, value);
+    return copy;
+  }
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    LevelManager level = portalLevel();
+    LevelManager loaded = read(save(level));
+
+    assertThat(describe(loaded)).isEqualTo(describe(level));
+    assertThat(loaded.startRoom().id()).isEqualTo("room-0");
+    assertThat(describe(loaded).stream().filter(s -> s.endsWith("flipped")).count())
+        .isGreaterThan(0L);
+
+    // Saving what was loaded gives the same bytes back.
+    assertThat(save(loaded)).isEqualTo(save(level));
+  }
+
+  @Test
+  public void testRoundTripGenerated() throws IOException {
+    StressLevel stressLevel = StressLevel.generate(StressLevel.Params.builder().setSeed(1)
+        .setNumSpaces(4).setPolygonsPerSpace(16).setPortalPairs(8).setFlippedPortals(3)
+        .setPortalCycles(1).setCycleLength(2).build());
+    LevelManager level = LevelManager.discover(stressLevel.world(), stressLevel.start());
+    Path path = Files.createTempFile("level", ".pdlv");
+    try {
+      level.save(path);
+      assertThat(describe(LevelManager.load(path))).isEqualTo(describe(level));
+    } finally {
+      Files.delete(path);
+    }
+  }
+
+  @Test
+  public void testFingerprint() throws IOException {
+    LevelManager level = portalLevel();
+    LevelManager moved = new LevelManager(level.rooms(), level.start().translate(1, 0));
+
+    assertThat(read(save(level)).fingerprint()).isEqualTo(level.fingerprint());
+    assertThat(portalLevel().fingerprint()).isEqualTo(level.fingerprint());
+    assertThat(moved.fingerprint()).isNotEqualTo(level.fingerprint());
+  }
+
+  @Test
+  public void testBadMagic() throws IOException {
+    byte[] bytes = save(portalLevel());
+    bytes[3] = 'X';
+
+    assertCorrupt(bytes, "Not a level file");
+  }
+
+  @Test
+  public void testBadVersion() throws IOException {
+    byte[] bytes = save(portalLevel());
+    bytes[4] = 9;
+
+    assertCorrupt(bytes, "Unsupported level file version 9");
+  }
+
+  @Test
+  public void testTruncated() throws IOException {
+    byte[] bytes = save(portalLevel());
+
+    // Cut anywhere, including inside a count that then claims more than is left.
+    for (int length = 0; length < bytes.length; length++) {
+      try {
+        read(Arrays.copyOf(bytes, length));
+        fail("Read " + length + " of " + bytes.length + " bytes");
+      } catch (IOException e) {
+        assertThat(e.getMessage().equals("Truncated level file")
+            || e.getMessage().equals("Corrupt level file")).isTrue();
+      }
+    }
+  }
+
+  @Test
+  public void testBadCounts() throws IOException {
+    LevelManager level = portalLevel();
+    byte[] bytes = save(level);
+    int numPortals =
+        (int) describe(level).stream().filter(s -> s.startsWith("portal")).count() / 2;
+
+    // Rooms, right after the magic number and version.
+    assertCorrupt(withInt(bytes, 5, -1), "Corrupt level file");
+    assertCorrupt(withInt(bytes, 5, Integer.MAX_VALUE), "Corrupt level file");
+    assertCorrupt(withInt(bytes, 5, 0), "Corrupt level file");
+    // The first room's id length, after the start position.
+    assertCorrupt(withInt(bytes, 25, bytes.length), "Corrupt level file");
+    // Portals.
+    int portalsOffset = bytes.length - PORTAL_BYTES * numPortals - 4;
+    assertCorrupt(withInt(bytes, portalsOffset, numPortals + 1), "Corrupt level file");
+    assertCorrupt(withInt(bytes, portalsOffset, -1), "Corrupt level file");
+  }
+
+  @Test
+  public void testBadSegments() throws IOException {
+    byte[] bytes = save(portalLevel());
+    int last = bytes.length - PORTAL_BYTES;
+
+    // The room, polygon and segment of the last portal's first end, out of range each way.
+    for (int field = 0; field < 3; field++) {
+      assertCorrupt(withInt(bytes, last + 4 * field, 1 << 20), "Corrupt level file");
+      assertCorrupt(withInt(bytes, last + 4 * field, -1), "Corrupt level file");
+    }
+    // Both ends on the same segment.
+    byte[] self = bytes.clone();
+    System.arraycopy(bytes, last, self, last + 12, 12);
+    assertCorrupt(self, "Corrupt level file");
+    // A segment that's already one end of another portal.
+    byte[] twice = bytes.clone();
+    System.arraycopy(bytes, last - PORTAL_BYTES, twice, last, 12);
+    assertCorrupt(twice, "Corrupt level file");
+  }
+}
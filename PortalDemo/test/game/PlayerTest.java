@@ -0,0 +1,117 @@
+package game;
+
+import static com.google.common.truth.Truth.assertThat;
+import java.awt.Color;
+import java.util.Random;
+import org.junit.Test;
+import geom.Angle;
+import geom.EnclosedRaycastSpace;
+import geom.LineSegment;
+import geom.Point;
+import geom.Polygon;
+import geom.RadialVector;
+import geom.Rectangle;
+import geom.Vector;
+import graphics.Renderer;
+import main.PortalLevel;
+
+public class PlayerTest {
+  private static EnclosedRaycastSpace room(Polygon polygon) {
+    return new EnclosedRaycastSpace(polygon, Renderer.forColor(Color.green));
+  }
+
+  // A 200 by 200 room around the origin.
+  private static EnclosedRaycastSpace square() {
+    return room(Rectangle.create(Point.origin(), 200, 200).asPolygon());
+  }
+
+  private static RadialVector movement(double dx, double dy) {
+    return Vector.create(dx, dy).toRadial();
+  }
+
+  private void assertPosition(Player player, double x, double y) {
+    assertThat(player.position().x()).isWithin(0.01).of(x);
+    assertThat(player.position().y()).isWithin(0.01).of(y);
+  }
+
+  // The player's distance from the nearest wall of its space.
+  private static double clearance(Player player) {
+    return player.space().polygonRefs().flatMap(p -> p.lineSegmentRefs().stream())
+        .filter(s -> !s.hasPortalLink())
+        .mapToDouble(s -> Math.sqrt(LineSegment.distanceSquared(s.lineSegment(),
+            player.position())))
+        .min().getAsDouble();
+  }
+
+  @Test
+  public void testOpen() {
+    Player player = new Player(square(), Point.origin());
+    player.move(movement(30, -40));
+
+    assertPosition(player, 30, -40);
+  }
+
+  @Test
+  public void testHeadOn() {
+    Player player = new Player(square(), Point.origin());
+    player.move(movement(0, -200));
+
+    assertPosition(player, 0, -100 + Player.RADIUS);
+    assertThat(clearance(player)).isAtLeast(Player.RADIUS);
+  }
+
+  @Test
+  public void testSlide() {
+    // Reaches the bottom wall 40% of the way, and keeps the rest of the move along it.
+    Player player = new Player(square(), Point.origin());
+    player.move(movement(40, -200));
+
+    assertPosition(player, 40, -100 + Player.RADIUS);
+  }
+
+  @Test
+  public void testCorner() {
+    Player player = new Player(square(), Point.origin());
+    player.move(movement(300, -300));
+
+    assertPosition(player, 100 - Player.RADIUS, -100 + Player.RADIUS);
+    assertThat(clearance(player)).isAtLeast(Player.RADIUS);
+
+    // Pushing on into the corner goes nowhere.
+    player.move(movement(5, -5));
+    assertPosition(player, 100 - Player.RADIUS, -100 + Player.RADIUS);
+  }
+
+  @Test
+  public void testWedge() {
+    // A corner too sharp to slide into. Both walls are RADIUS away at x = -0.5, which is as deep as
+    // the player gets however hard it pushes.
+    Player player = new Player(
+        room(Polygon.builder().addPoint(-100, -20).addPoint(100, 0).addPoint(-100, 20).build()),
+        Point.create(-50, 0));
+    for (int i = 0; i < 100; i++) {
+      player.move(movement(10, 0));
+      assertThat(clearance(player)).isAtLeast(Player.RADIUS);
+    }
+
+    assertPosition(player, -0.5, 0);
+  }
+
+  @Test
+  public void testNeverTouchesWalls() {
+    // Long walks in random directions, through portals, into walls and along them.
+    Random random = new Random(1);
+    Player player = new Player(PortalLevel.level(), PortalLevel.START);
+    Angle direction = Angle.origin();
+    for (int step = 0; step < 20000; step++) {
+      if (step % 50 == 0) {
+        direction = Angle.ofRadians(random.nextDouble() * 2 * Math.PI);
+      }
+      player.move(RadialVector.create(direction, 1 + random.nextDouble() * 7));
+
+      assertThat(clearance(player)).isAtLeast(Player.RADIUS);
+    }
+
+    assertThat(player.portalCrossings()).isGreaterThan(0L);
+  }
+}
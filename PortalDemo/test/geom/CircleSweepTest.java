@@ -0,0 +1,82 @@
+package geom;
+
+import static com.google.common.truth.Truth.assertThat;
+import java.awt.Color;
+import java.util.Optional;
+import org.junit.Before;
+import org.junit.Test;
+import graphics.Renderer;
+
+public class CircleSweepTest {
+  private EnclosedRaycastSpace room;
+
+  // A 200 by 200 room around the origin, with a box from (30, 20) to (50, 40).
+  @Before
+  public void setUp() {
+    room = new EnclosedRaycastSpace(Rectangle.create(Point.origin(), 200, 200).asPolygon(),
+        Renderer.forColor(Color.green));
+    room.addInteriorRaycastPolygon(Polygon.builder().addPoint(30, 20).addLine(20, 0)
+        .addLine(0, 20).addLine(-20, 0).build());
+  }
+
+  private void assertNormal(Collision collision, double nx, double ny) {
+    assertThat(collision.normal().dx()).isWithin(1e-9).of(nx);
+    assertThat(collision.normal().dy()).isWithin(1e-9).of(ny);
+  }
+
+  @Test
+  public void testHeadOn() {
+    Collision collision =
+        room.sweepCircle(Point.create(0, -50), Vector.create(0, -100), 10).get();
+
+    assertThat(collision.time()).isWithin(1e-9).of(0.4);
+    assertThat(collision.isPortal()).isFalse();
+    assertNormal(collision, 0, 1);
+  }
+
+  @Test
+  public void testShortOfWall() {
+    assertThat(room.sweepCircle(Point.create(0, -50), Vector.create(0, -39), 10).isPresent())
+        .isFalse();
+  }
+
+  @Test
+  public void testAlongWall() {
+    // Passing just under the box, and moving along the room's right wall, touches neither.
+    assertThat(room.sweepCircle(Point.create(0, 9), Vector.create(80, 0), 10).isPresent())
+        .isFalse();
+    assertThat(room.sweepCircle(Point.create(90, -80), Vector.create(0, 160), 10).isPresent())
+        .isFalse();
+  }
+
+  @Test
+  public void testCorner() {
+    // Passing under the box, close enough to catch its bottom left corner.
+    Collision collision = room.sweepCircle(Point.create(0, 15), Vector.create(40, 0), 10).get();
+
+    double x = 30 - Math.sqrt(75);
+    assertThat(collision.time()).isWithin(1e-9).of(x / 40);
+    assertNormal(collision, (x - 30) / 10, -0.5);
+  }
+
+  @Test
+  public void testOverlapping() {
+    // Already within the radius of the room's left wall: stopped at once going further in, but
+    // free to back out.
+    Optional<Collision> in = room.sweepCircle(Point.create(-95, 0), Vector.create(-1, 0), 10);
+    assertThat(in.get().time()).isEqualTo(0.0);
+    assertNormal(in.get(), 1, 0);
+
+    assertThat(room.sweepCircle(Point.create(-95, 0), Vector.create(1, 0), 10).isPresent())
+        .isFalse();
+  }
+
+  @Test
+  public void testNearest() {
+    // The box is nearer than the room's wall behind it.
+    Collision collision = room.sweepCircle(Point.create(40, -50), Vector.create(0, 200), 10).get();
+
+    assertThat(collision.time()).isWithin(1e-9).of(60.0 / 200);
+    assertNormal(collision, 0, -1);
+  }
+}
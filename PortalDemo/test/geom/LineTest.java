@@ -40,4 +40,34 @@ public class LineTest {
     
     assertPoint(Line.intersection(five, up).get(), 6, 5);
   }
+  
+  @Test
+  public void testNearlyParallel() {
+    Line flat = Line.from(Point.create(0, 0), Point.create(1024, 0));
+    Line tilted = Line.from(Point.create(0, 1), Point.create(1024, 1 - 0x1p-30));
+    
+    assertPoint(Line.intersection(flat, tilted).get(), 0x1p40, 0);
+  }
+  
+  @Test
+  public void testOrientation() {
+    assertThat(Predicates.orientation(0, 0, 1, 0, 0, 1)).isEqualTo(1);
+    assertThat(Predicates.orientation(0, 0, 0, 1, 1, 0)).isEqualTo(-1);
+    
+    // Too close to call in floating point.
+    assertThat(Predicates.orientation(0.5, 0.5, 12, 12, 24, 24)).isEqualTo(0);
+    assertThat(Predicates.orientation(0.5, Math.nextUp(0.5), 12, 12, 24, 24)).isEqualTo(1);
+    assertThat(Predicates.orientation(Math.nextUp(0.5), 0.5, 12, 12, 24, 24)).isEqualTo(-1);
+  }
+  
+  @Test
+  public void testSegmentEndpoints() {
+    LineSegment s1 = LineSegment.create(Point.create(0, 0), Point.create(0.1, 0.3));
+    LineSegment s2 = LineSegment.create(Point.create(0.1, 0.3), Point.create(1, 0));
+    LineSegment s3 = LineSegment.create(Point.create(0.2, 0.6), Point.create(1, 1));
+    
+    assertThat(LineSegment.intersection(s1, s2).get()).isEqualTo(Point.create(0.1, 0.3));
+    assertThat(LineSegment.intersects(s1, s3)).isFalse();
+    assertThat(LineSegment.intersects(s1.reversed(), s2.reversed())).isTrue();
+  }
 }
\ No newline at end of file
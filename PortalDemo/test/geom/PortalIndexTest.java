@@ -0,0 +1,145 @@
+package geom;
+
+import static com.google.common.truth.Truth.assertThat;
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Test;
+import com.google.common.collect.ImmutableList;
+import graphics.Renderer;
+
+public class PortalIndexTest {
+  private EnclosedRaycastSpace room;
+  private EnclosedRaycastSpace.PolygonRef bar;
+  private EnclosedRaycastSpace.PolygonRef slant;
+
+  // A 2000 by 2000 room around the origin, so a grid of 10 by 10 cells of 200. Its bottom part
+  // holds 40 by 40 boxes, each with two portals between its opposite sides. Above them, a bar
+  // 1300 long spans seven columns, and a slanted parallelogram spans seven columns and five rows,
+  // each with a portal between its long sides.
+  @Before
+  public void setUp() {
+    room = new EnclosedRaycastSpace(Rectangle.create(Point.origin(), 2000, 2000).asPolygon(),
+        Renderer.forColor(Color.green));
+    for (int i = 0; i < 10; i++) {
+      for (int j = 0; j < 4; j++) {
+        EnclosedRaycastSpace.PolygonRef box = room.addInteriorRaycastPolygon(
+            Polygon.builder().addPoint(-870 + 200 * i, -910 + 200 * j).addLine(40, 0)
+                .addLine(0, 40).addLine(-40, 0).build());
+        EnclosedRaycastSpace.createPortal(box.lineSegmentRef(0), box.lineSegmentRef(2));
+        EnclosedRaycastSpace.createPortal(box.lineSegmentRef(1), box.lineSegmentRef(3));
+      }
+    }
+
+    bar = room.addInteriorRaycastPolygon(Polygon.builder().addPoint(-850, -100).addLine(1300, 0)
+        .addLine(0, 30).addLine(-1300, 0).build());
+    EnclosedRaycastSpace.createPortal(bar.lineSegmentRef(1), bar.lineSegmentRef(3));
+
+    slant = room.addInteriorRaycastPolygon(Polygon.builder().addPoint(-800, 100)
+        .addPoint(-760, 100).addPoint(440, 900).addPoint(400, 900).build());
+    EnclosedRaycastSpace.createPortal(slant.lineSegmentRef(0), slant.lineSegmentRef(2));
+  }
+
+  // Every portal of the room tested against `movement`, sorted by when it's crossed.
+  private List<PortalCrossing> bruteForce(LineSegment movement) {
+    List<PortalCrossing> crossings = new ArrayList<>();
+    if (movement.lengthSquared() == 0.0) {
+      return crossings;
+    }
+    for (EnclosedRaycastSpace.PortalLink portalLink : room.portalLinks()) {
+      LineSegment portal = portalLink.srcSegment();
+      boolean alongPortal = Predicates.orientation(movement.p1(), movement.p2(), portal.p1()) == 0
+          && Predicates.orientation(movement.p1(), movement.p2(), portal.p2()) == 0;
+      if (!alongPortal && LineSegment.intersects(movement, portal)) {
+        Point p = LineSegment.intersection(movement, portal).get();
+        double t = Math.sqrt(Point.distSquared(movement.p1(), p) / movement.lengthSquared());
+        crossings.add(PortalCrossing.create(t, portalLink));
+      }
+    }
+    crossings.sort(Comparator.comparingDouble(PortalCrossing::time));
+    return crossings;
+  }
+
+  private void assertMatchesBruteForce(LineSegment movement) {
+    List<PortalCrossing> expected = bruteForce(movement);
+    ImmutableList<PortalCrossing> actual = room.portalCrossings(movement);
+
+    assertThat(actual).hasSize(expected.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertThat(actual.get(i).portalLink()).isSameAs(expected.get(i).portalLink());
+      assertThat(actual.get(i).time()).isWithin(1e-9).of(expected.get(i).time());
+    }
+  }
+
+  private static LineSegment movement(double x1, double y1, double x2, double y2) {
+    return LineSegment.create(Point.create(x1, y1), Point.create(x2, y2));
+  }
+
+  @Test
+  public void testMatchesBruteForce() {
+    Random random = new Random(1);
+    for (double length : new double[] {2, 60, 600, 3000}) {
+      for (int i = 0; i < 20000; i++) {
+        double x = random.nextDouble() * 2000 - 1000;
+        double y = random.nextDouble() * 2000 - 1000;
+        double angle = random.nextDouble() * 2 * Math.PI;
+        assertMatchesBruteForce(movement(x, y, x + length * Math.cos(angle),
+            y + length * Math.sin(angle)));
+      }
+    }
+  }
+
+  @Test
+  public void testRowOfBoxesInOrder() {
+    // Through both vertical sides of every box in the bottom row, left to right.
+    LineSegment movement = movement(-990, -890, 990, -890);
+    ImmutableList<PortalCrossing> crossings = room.portalCrossings(movement);
+
+    assertThat(crossings).hasSize(20);
+    assertMatchesBruteForce(movement);
+    assertMatchesBruteForce(movement.reversed());
+  }
+
+  @Test
+  public void testLongPortalFoundOnce() {
+    // Crossing the bar and the slant far from the cells their portals start in, and from cells
+    // that start past them, still finds each portal exactly once.
+    for (double x : new double[] {-840, -500, -1, 0, 199, 200, 440}) {
+      ImmutableList<PortalCrossing> crossings = room.portalCrossings(movement(x, -150, x, -50));
+      assertThat(crossings).hasSize(2);
+      assertThat(crossings.get(0).portalLink()).isSameAs(bar.lineSegmentRef(1).portalLink());
+      assertThat(crossings.get(1).portalLink()).isSameAs(bar.lineSegmentRef(3).portalLink());
+    }
+    for (double y : new double[] {150, 390, 610, 850}) {
+      double x = -780 + (y - 100) * 1.5;
+      LineSegment movement = movement(x - 100, y, x + 100, y);
+      ImmutableList<PortalCrossing> crossings = room.portalCrossings(movement);
+
+      assertThat(crossings).hasSize(2);
+      assertThat(crossings.get(0).portalLink()).isSameAs(slant.lineSegmentRef(0).portalLink());
+      assertThat(crossings.get(1).portalLink()).isSameAs(slant.lineSegmentRef(2).portalLink());
+      assertMatchesBruteForce(movement);
+    }
+  }
+
+  @Test
+  public void testAlongPortalDoesNotCross() {
+    assertThat(room.portalCrossings(movement(-900, -100, 500, -100))).isEmpty();
+    assertThat(room.portalCrossings(movement(-500, 0, -500, 0))).isEmpty();
+  }
+
+  @Test
+  public void testRebuiltForNewPortal() {
+    EnclosedRaycastSpace.PolygonRef box = room.addInteriorRaycastPolygon(Polygon.builder()
+        .addPoint(600, 0).addLine(40, 0).addLine(0, 40).addLine(-40, 0).build());
+    LineSegment movement = movement(580, 20, 660, 20);
+    assertThat(room.portalCrossings(movement)).isEmpty();
+
+    EnclosedRaycastSpace.createPortal(box.lineSegmentRef(0), box.lineSegmentRef(2));
+    assertThat(room.portalCrossings(movement)).hasSize(2);
+    assertMatchesBruteForce(movement);
+  }
+}
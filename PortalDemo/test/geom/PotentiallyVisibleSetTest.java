@@ -0,0 +1,82 @@
+package geom;
+
+import static com.google.common.truth.Truth.assertThat;
+import static geom.TraceKernelTest.assertSameTrace;
+import static geom.TraceKernelTest.inside;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import main.StressLevel;
+
+public class PotentiallyVisibleSetTest {
+  private static StressLevel level(long seed) {
+    return StressLevel.generate(StressLevel.Params.builder().setSeed(seed).setNumSpaces(4)
+        .setPolygonsPerSpace(20).setPortalPairs(8).setFlippedPortals(2).setPortalCycles(2)
+        .setCycleLength(2).build());
+  }
+
+  private static List<Point> origins(EnclosedRaycastSpace space, Random random, int n) {
+    Rectangle bounds = space.exteriorPolygon().boundingRect();
+    List<Point> origins = new ArrayList<>();
+    while (origins.size() < n) {
+      Point p = Point.create(bounds.x1() + random.nextDouble() * bounds.width(),
+          bounds.y1() + random.nextDouble() * bounds.height());
+      if (inside(space, p)) {
+        origins.add(p);
+      }
+    }
+    return origins;
+  }
+
+  // Traces with the sets in place against traces made before they were built, which check every
+  // portal's distance, so any portal the sets wrongly left out would change the tree.
+  private void assertNeverCulls(StressLevel level, int maxLinksPerCell, long seed) {
+    Random random = new Random(seed);
+    List<EnclosedRaycastSpace> spaces = new ArrayList<>();
+    List<Point> origins = new ArrayList<>();
+    List<RayTrace> traces = new ArrayList<>();
+    for (EnclosedRaycastSpace space : level.spaces()) {
+      for (Point origin : origins(space, random, 30)) {
+        spaces.add(space);
+        origins.add(origin);
+        traces.add(RayTrace.buildRadialTrace(space, origin, 800));
+      }
+    }
+
+    PotentiallyVisibleSet.build(level.world(), 800, maxLinksPerCell);
+    for (int i = 0; i < traces.size(); i++) {
+      assertSameTrace(traces.get(i), RayTrace.buildRadialTrace(spaces.get(i), origins.get(i), 800));
+      assertSameTrace(traces.get(i),
+          TraceKernel.buildRadialTrace(spaces.get(i), origins.get(i), 800));
+    }
+  }
+
+  @Test
+  public void testNeverCullsVisiblePortals() {
+    for (long seed = 0; seed < 3; seed++) {
+      assertNeverCulls(level(seed), 1024, seed);
+    }
+  }
+
+  @Test
+  public void testUncoveredCells() {
+    StressLevel level = level(3);
+    assertNeverCulls(level, 0, 3);
+
+    // The start has portals in reach, so its cell is left uncovered.
+    PotentiallyVisibleSet pvs = level.world().potentiallyVisibleSet();
+    assertThat(pvs.cell(level.start().x(), level.start().y())).isNull();
+    assertThat(PotentiallyVisibleSet.portalLinksFor(level.world(), level.start(), 800)).isNull();
+  }
+
+  @Test
+  public void testLongerTracesUncovered() {
+    StressLevel level = level(4);
+    PotentiallyVisibleSet.build(level.world(), 800);
+
+    assertThat(PotentiallyVisibleSet.portalLinksFor(level.world(), level.start(), 800))
+        .isNotNull();
+    assertThat(PotentiallyVisibleSet.portalLinksFor(level.world(), level.start(), 801)).isNull();
+  }
+}
@@ -0,0 +1,41 @@
+package geom;
+
+import static com.google.common.truth.Truth.assertThat;
+import java.awt.Color;
+import org.junit.Test;
+import graphics.Renderer;
+
+public class RayTraceTest {
+  private static EnclosedRaycastSpace pillarRoom() {
+    EnclosedRaycastSpace room =
+        new EnclosedRaycastSpace(Rectangle.create(Point.origin(), 2000, 2000).asPolygon(),
+            Renderer.forColor(Color.green));
+    room.addInteriorRaycastPolygon(Polygon.builder().addPoint(-410, 250).addLine(100, 0)
+        .addLine(0, 50).addLine(100, 0).addLine(0, -50).addLine(100, 0).addLine(0, 100)
+        .addLine(-50, 0).addLine(0, 100).addLine(50, 0).addLine(0, 100).addLine(-100, 0)
+        .addLine(0, -50).addLine(-100, 0).addLine(0, 50).addLine(-100, 0).addLine(0, -100)
+        .addLine(50, 0).addLine(0, -100).addLine(-50, 0).build());
+    return room;
+  }
+
+  private void assertScopesClose(RayTrace a, RayTrace b, double tolerance) {
+    assertThat(a.scope().numPoints()).isEqualTo(b.scope().numPoints());
+    for (int i = 0; i < a.scope().numPoints(); i++) {
+      assertThat(a.scope().point(i).x()).isWithin(tolerance).of(b.scope().point(i).x());
+      assertThat(a.scope().point(i).y()).isWithin(tolerance).of(b.scope().point(i).y());
+    }
+  }
+
+  @Test
+  public void testOriginBesideVertexColumn() {
+    // The pillar's left corners all lie just off the ray straight up from these origins, too close
+    // for rounded angles to order them; the sweep used to lose segments here.
+    EnclosedRaycastSpace room = pillarRoom();
+    for (double y : new double[] {-800, -950}) {
+      RayTrace near = RayTrace.buildRadialTrace(room, Point.create(-410 - 1e-12, y), 800);
+      RayTrace far = RayTrace.buildRadialTrace(room, Point.create(-410 - 1e-6, y), 800);
+
+      assertScopesClose(near, far, 0.01);
+    }
+  }
+}
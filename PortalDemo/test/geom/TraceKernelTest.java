@@ -0,0 +1,99 @@
+package geom;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+import java.awt.Color;
+import java.util.Random;
+import org.junit.Test;
+import graphics.Renderer;
+import main.StressLevel;
+
+public class TraceKernelTest {
+  // Whether `p` is strictly inside `space`, clear of its walls.
+  static boolean inside(EnclosedRaycastSpace space, Point p) {
+    if (!space.exteriorPolygon().toShape().contains(p.x(), p.y())) {
+      return false;
+    }
+    return space.polygonRefs().allMatch(r -> (r == space.exteriorPolygonRef()
+        || !r.polygon().toShape().contains(p.x(), p.y()))
+        && r.polygon().lineSegments().stream()
+            .allMatch(ls -> LineSegment.distanceSquared(ls, p) > 1e-6));
+  }
+
+  static void assertSameTrace(RayTrace expected, RayTrace actual) {
+    assertThat(actual.space()).isSameAs(expected.space());
+    assertThat(actual.scope().points()).isEqualTo(expected.scope().points());
+    assertThat(actual.recursiveRayTraces()).hasSize(expected.recursiveRayTraces().size());
+    for (int i = 0; i < expected.recursiveRayTraces().size(); i++) {
+      RayTrace.RecursiveRayTrace e = expected.recursiveRayTraces().get(i);
+      RayTrace.RecursiveRayTrace a = actual.recursiveRayTraces().get(i);
+      assertThat(a.portalLink()).isSameAs(e.portalLink());
+      assertSameTrace(e.rayTrace(), a.rayTrace());
+    }
+  }
+
+  @Test
+  public void testMatchesRayTrace() {
+    for (long seed = 0; seed < 5; seed++) {
+      StressLevel level = StressLevel.generate(StressLevel.Params.builder().setSeed(seed)
+          .setNumSpaces(3).setPolygonsPerSpace(20).setPortalPairs(6).setFlippedPortals(2)
+          .setPortalCycles(1).setCycleLength(2).build());
+      Random random = new Random(seed);
+      for (EnclosedRaycastSpace space : level.spaces()) {
+        Rectangle bounds = space.exteriorPolygon().boundingRect();
+        for (int i = 0; i < 40; i++) {
+          Point origin = Point.create(bounds.x1() + random.nextDouble() * bounds.width(),
+              bounds.y1() + random.nextDouble() * bounds.height());
+          if (!inside(space, origin)) {
+            continue;
+          }
+
+          assertSameTrace(RayTrace.buildRadialTrace(space, origin, 800),
+              TraceKernel.buildRadialTrace(space, origin, 800));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testMatchesRayTraceWithPolicy() {
+    StressLevel level = StressLevel.generate(StressLevel.Params.builder().setSeed(7)
+        .setNumSpaces(3).setPolygonsPerSpace(20).setPortalPairs(6).setFlippedPortals(2)
+        .setPortalCycles(1).setCycleLength(2).build());
+    TracePolicy policy = TracePolicy.builder().setMaxDepth(4).setMinWindowPixels(1.0).build();
+    Random random = new Random(7);
+    EnclosedRaycastSpace space = level.world();
+    Rectangle bounds = space.exteriorPolygon().boundingRect();
+    for (int i = 0; i < 100; i++) {
+      Point origin = Point.create(bounds.x1() + random.nextDouble() * bounds.width(),
+          bounds.y1() + random.nextDouble() * bounds.height());
+      if (!inside(space, origin)) {
+        continue;
+      }
+
+      assertSameTrace(RayTrace.buildRadialTrace(space, origin, 800, policy),
+          TraceKernel.buildRadialTrace(space, origin, 800, policy));
+    }
+  }
+
+  @Test
+  public void testUnenclosedOrigin() {
+    EnclosedRaycastSpace room =
+        new EnclosedRaycastSpace(Rectangle.create(Point.origin(), 200, 200).asPolygon(),
+            Renderer.forColor(Color.green));
+    Point outside = Point.create(500, 0);
+
+    for (boolean kernel : new boolean[] {false, true}) {
+      try {
+        if (kernel) {
+          TraceKernel.buildRadialTrace(room, outside, 800);
+        } else {
+          RayTrace.buildRadialTrace(room, outside, 800);
+        }
+        fail();
+      } catch (RuntimeException e) {
+        assertThat(e).hasMessageThat().isEqualTo("space not enclosed");
+      }
+    }
+  }
+}
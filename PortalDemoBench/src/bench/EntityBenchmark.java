@@ -0,0 +1,81 @@
+package bench;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import com.google.common.collect.ImmutableList;
+import game.EntityStore;
+import geom.EnclosedRaycastSpace;
+import geom.Point;
+import geom.Vector;
+import main.StressLevel;
+
+// One EntityStore tick per op, with entities spread over the rooms of a generated level and
+// bouncing around and through its portals.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EntityBenchmark {
+  private static final double RADIUS = 5;
+  private static final double MAX_SPEED = 4;
+
+  @Param({"100", "1000"})
+  public int entities;
+
+  // Threads moving spaces in parallel; 1 moves them all on the benchmark thread.
+  @Param({"1", "4"})
+  public int threads;
+
+  private EntityStore entityStore;
+  private ForkJoinPool pool;
+
+  @Setup(Level.Iteration)
+  public void setUp() {
+    StressLevel level = StressLevel.generate(StressLevel.Params.builder().setNumSpaces(8)
+        .setPolygonsPerSpace(16).setPortalPairs(16).setPortalCycles(2).setCycleLength(4).build());
+    entityStore = new EntityStore(RADIUS);
+    List<ImmutableList<Point>> positions = level.spaces().stream()
+        .map(space -> Positions.grid(space, 10)).collect(Collectors.toList());
+    Random random = new Random(0);
+    for (int i = 0; i < entities; i++) {
+      int s = i % level.spaces().size();
+      EnclosedRaycastSpace space = level.spaces().get(s);
+      double angle = random.nextDouble() * 2 * Math.PI;
+      double speed = random.nextDouble() * MAX_SPEED;
+      entityStore.add(space, positions.get(s).get(random.nextInt(positions.get(s).size())),
+          Vector.create(speed * Math.cos(angle), speed * Math.sin(angle)));
+    }
+    pool = threads > 1 ? new ForkJoinPool(threads) : null;
+  }
+
+  @TearDown(Level.Iteration)
+  public void tearDown() {
+    if (pool != null) {
+      pool.shutdown();
+    }
+  }
+
+  @Benchmark
+  public EntityStore tick() {
+    entityStore.tick(pool);
+    return entityStore;
+  }
+}
@@ -0,0 +1,96 @@
+package bench;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import com.google.common.collect.ImmutableList;
+import geom.Angle;
+import geom.EnclosedRaycastSpace;
+import geom.Line;
+import geom.LineSegment;
+import geom.Point;
+import geom.PortalCrossing;
+import geom.RadialVector;
+import main.PortalLevel;
+
+// The geometry primitives under movement, over fixed pseudo-random inputs.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GeometryBenchmark {
+  private static final int NUM_INPUTS = 1024;
+  private static final double COORDINATE_RANGE = 1000;
+  private static final double STEP_LENGTH = 2.0;
+
+  private final Line[] lines = new Line[NUM_INPUTS + 1];
+  private final LineSegment[] steps = new LineSegment[NUM_INPUTS];
+  private EnclosedRaycastSpace level;
+  private int next = 0;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(0);
+    for (int i = 0; i < lines.length; i++) {
+      lines[i] = Line.from(randomPoint(random), randomPoint(random));
+    }
+
+    // Player-sized steps: half straddle a portal, half wander the open floor.
+    level = PortalLevel.level();
+    List<LineSegment> portals = level.polygonRefs().flatMap(p -> p.lineSegmentRefs().stream())
+        .filter(EnclosedRaycastSpace.LineSegmentRef::hasPortalLink)
+        .map(EnclosedRaycastSpace.LineSegmentRef::lineSegment).collect(Collectors.toList());
+    ImmutableList<Point> positions = Positions.grid(level, 10);
+    for (int i = 0; i < steps.length; i++) {
+      RadialVector step =
+          RadialVector.create(Angle.ofRadians(random.nextDouble() * 2 * Math.PI), STEP_LENGTH);
+      Point from;
+      if (i % 2 == 0) {
+        LineSegment portal = portals.get(random.nextInt(portals.size()));
+        double t = random.nextDouble();
+        from = Point.create(portal.p1().x() + t * (portal.p2().x() - portal.p1().x()),
+            portal.p1().y() + t * (portal.p2().y() - portal.p1().y()))
+            .translate(step.dx() / -2, step.dy() / -2);
+      } else {
+        from = positions.get(random.nextInt(positions.size()));
+      }
+      steps[i] = LineSegment.create(from, from.translate(step));
+    }
+  }
+
+  private static Point randomPoint(Random random) {
+    return Point.create((random.nextDouble() - 0.5) * COORDINATE_RANGE,
+        (random.nextDouble() - 0.5) * COORDINATE_RANGE);
+  }
+
+  private int nextInput() {
+    int input = next;
+    next = (next + 1) % NUM_INPUTS;
+    return input;
+  }
+
+  @Benchmark
+  public Optional<Point> lineIntersection() {
+    int i = nextInput();
+    return Line.intersection(lines[i], lines[i + 1]);
+  }
+
+  @Benchmark
+  public ImmutableList<PortalCrossing> portalCrossings() {
+    return level.portalCrossings(steps[nextInput()]);
+  }
+}
@@ -0,0 +1,52 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import game.Player;
+import geom.Angle;
+import geom.Point;
+import geom.RadialVector;
+import main.PortalLevel;
+
+// Player.move, one game tick's worth of movement per op.
+//
+// The player walks in circles, turning a little each step like a player holding forward and a
+// camera key. The circle runs across the corner of the magic pillar, so some steps slide along its
+// walls and some go through its portals.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlayerBenchmark {
+  private static final Point START = Point.create(420, 240);
+  private static final double MOVEMENT_SPEED = 2.0;
+  private static final Angle TURN = Angle.ofRadians(Math.PI / 60);
+
+  private Player player;
+  private Angle heading;
+
+  @Setup(Level.Iteration)
+  public void setUp() {
+    player = new Player(PortalLevel.level(), START);
+    heading = Angle.origin();
+  }
+
+  @Benchmark
+  public Player move() {
+    heading = Angle.add(heading, TURN);
+    player.move(RadialVector.create(Angle.add(heading, player.camera()), MOVEMENT_SPEED));
+    return player;
+  }
+}
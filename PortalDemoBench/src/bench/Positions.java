@@ -0,0 +1,35 @@
+package bench;
+
+import com.google.common.collect.ImmutableList;
+import geom.EnclosedRaycastSpace;
+import geom.Point;
+import geom.Rectangle;
+
+// Fixed sample positions, so runs are comparable with each other.
+final class Positions {
+  // Offsets the grid from the level's vertices, which all lie on multiples of 25.
+  private static final double GRID_OFFSET = 3.7;
+
+  private Positions() {}
+
+  // Points on a square grid with spacing `step` that are on the open floor of `space`: inside its
+  // exterior polygon but outside all of its interior ones.
+  static ImmutableList<Point> grid(EnclosedRaycastSpace space, double step) {
+    Rectangle bounds = space.exteriorPolygon().boundingRect();
+    ImmutableList.Builder<Point> builder = ImmutableList.builder();
+    for (double x = bounds.x1() + GRID_OFFSET; x < bounds.x2(); x += step) {
+      for (double y = bounds.y1() + GRID_OFFSET; y < bounds.y2(); y += step) {
+        if (isOpen(space, x, y)) {
+          builder.add(Point.create(x, y));
+        }
+      }
+    }
+    return builder.build();
+  }
+
+  private static boolean isOpen(EnclosedRaycastSpace space, double x, double y) {
+    return space.exteriorPolygon().toShape().contains(x, y)
+        && space.polygonRefs().filter(p -> p != space.exteriorPolygonRef())
+            .noneMatch(p -> p.polygon().toShape().contains(x, y));
+  }
+}
@@ -0,0 +1,84 @@
+package bench;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import game.GameState;
+import game.InputState;
+import game.KeyState;
+import game.Player;
+import geom.Point;
+import main.PortalLevel;
+
+// One frame per op: a game tick, then GameState.render into an offscreen image the size of the
+// game window, painted the way Main's panel paints.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class RenderBenchmark {
+  private static final int WIDTH = 1000;
+  private static final int HEIGHT = 1000;
+  private static final Point START = Point.create(100, 100);
+
+  // "still" repaints from where the last frame was traced; "walking" holds forward and a camera
+  // key, circling so that every frame needs a new trace.
+  @Param({"still", "walking"})
+  public String motion;
+
+  // Whether scopes are filled by the software Rasterizer rather than through Java2D.
+  @Param({"false", "true"})
+  public boolean software;
+
+  private GameState gameState;
+  private InputState inputState;
+  private BufferedImage image;
+  private Graphics2D g2d;
+
+  @Setup(Level.Iteration)
+  public void setUp() {
+    gameState = new GameState(new Player(PortalLevel.level(), START));
+    gameState.setSoftwareRendering(software);
+    inputState = motion.equals("walking")
+        ? InputState.builder().setPlayerControlUp(KeyState.HELD)
+            .setPlayerControlCameraRight(KeyState.HELD).build()
+        : InputState.builder().build();
+    image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+    g2d = image.createGraphics();
+    g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+  }
+
+  @TearDown(Level.Iteration)
+  public void tearDown() {
+    g2d.dispose();
+  }
+
+  @Benchmark
+  public BufferedImage render() {
+    gameState.tick(inputState);
+
+    Graphics2D frame = (Graphics2D) g2d.create();
+    frame.setColor(Color.black);
+    frame.fillRect(0, 0, WIDTH, HEIGHT);
+    gameState.render(frame, WIDTH, HEIGHT);
+    frame.dispose();
+    return image;
+  }
+}
@@ -0,0 +1,69 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import com.google.common.collect.ImmutableList;
+import geom.EnclosedRaycastSpace;
+import geom.Point;
+import geom.TraceKernel;
+import main.StressLevel;
+
+// TraceKernel over generated levels of increasing size, to see how trace cost grows with the
+// number of segments and portals.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScalingBenchmark {
+  private static final double MAX_VISIBILITY = 800;
+  private static final double GRID_STEP = 97.3;
+
+  @Param({"16", "64", "256"})
+  public int polygons;
+
+  @Param({"4", "16"})
+  public int segmentsPerPolygon;
+
+  // Portals per 16 polygons, of each kind.
+  @Param({"0", "4"})
+  public int portalDensity;
+
+  private EnclosedRaycastSpace level;
+  private ImmutableList<Point> positions;
+  private int next = 0;
+
+  @Setup
+  public void setUp() {
+    int portals = portalDensity * polygons / 16;
+    StressLevel stressLevel = StressLevel.generate(StressLevel.Params.builder()
+        .setNumSpaces(4)
+        .setPolygonsPerSpace(polygons)
+        .setSegmentsPerPolygon(segmentsPerPolygon)
+        .setPortalPairs(portals)
+        .setFlippedPortals(portals)
+        .setPortalCycles(portals > 0 ? 1 : 0)
+        .setCycleLength(4)
+        .build());
+    level = stressLevel.world();
+    positions = Positions.grid(level, GRID_STEP);
+  }
+
+  @Benchmark
+  public TraceKernel.PackedTrace traceKernel() {
+    Point position = positions.get(next);
+    next = (next + 1) % positions.size();
+    return TraceKernel.forCurrentThread().trace(level, position, MAX_VISIBILITY);
+  }
+}
@@ -0,0 +1,80 @@
+package bench;
+
+import java.awt.Graphics2D;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import geom.Angle;
+import geom.OrientedRectangle;
+import geom.Point;
+import geom.Rectangle;
+import graphics.ImageRenderer;
+
+// One view of a textured rectangle per op, under a rotated camera: ImageRenderer's cached tiles
+// against resampling the source image on every draw, as ImageRenderer used to.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class TextureBenchmark {
+  private static final int WIDTH = 1000;
+  private static final int HEIGHT = 1000;
+  private static final OrientedRectangle RECT = OrientedRectangle.create(
+      Rectangle.create(Point.create(500, 500), 500, 350), Angle.ofRadians(0.4));
+  private static final Rectangle OCCLUSION = Rectangle.create(Point.create(500, 500), 1000, 1000);
+
+  private BufferedImage source;
+  private ImageRenderer imageRenderer;
+  private BufferedImage image;
+  private Graphics2D g2d;
+
+  @Setup(Level.Iteration)
+  public void setUp() {
+    source = new BufferedImage(2048, 1536, BufferedImage.TYPE_INT_RGB);
+    for (int x = 0; x < source.getWidth(); x++) {
+      for (int y = 0; y < source.getHeight(); y++) {
+        source.setRGB(x, y, (x & 0xFF) << 16 | (y & 0xFF) << 8 | ((x ^ y) & 0xFF));
+      }
+    }
+    imageRenderer = ImageRenderer.create(source, RECT);
+    image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+    g2d = image.createGraphics();
+    g2d.rotate(0.7, WIDTH / 2, HEIGHT / 2);
+  }
+
+  @TearDown(Level.Iteration)
+  public void tearDown() {
+    g2d.dispose();
+  }
+
+  @Benchmark
+  public BufferedImage cached() {
+    imageRenderer.render(g2d, OCCLUSION);
+    return image;
+  }
+
+  @Benchmark
+  public BufferedImage resampled() {
+    AffineTransform tx = g2d.getTransform();
+    Rectangle r = RECT.rectangle();
+    g2d.rotate(RECT.angle().radians(), r.center().x(), r.center().y());
+    g2d.drawImage(source, (int) r.x1(), (int) r.y1(), (int) r.x2(), (int) r.y2(), 0, 0,
+        source.getWidth(), source.getHeight(), null);
+    g2d.setTransform(tx);
+    return image;
+  }
+}
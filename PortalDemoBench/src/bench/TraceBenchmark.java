@@ -0,0 +1,66 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import com.google.common.collect.ImmutableList;
+import geom.EnclosedRaycastSpace;
+import geom.Point;
+import geom.PotentiallyVisibleSet;
+import geom.RayTrace;
+import geom.TraceKernel;
+import main.PortalLevel;
+
+// Full traces of PortalLevel, each op from the next position on a grid over the open floor.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TraceBenchmark {
+  private static final double MAX_VISIBILITY = 800;
+  private static final double GRID_STEP = 37.3;
+
+  // Whether the level carries potentially visible sets, as it does in the game.
+  @Param({"false", "true"})
+  public boolean pvs;
+
+  private EnclosedRaycastSpace level;
+  private ImmutableList<Point> positions;
+  private int next = 0;
+
+  @Setup
+  public void setUp() {
+    level = PortalLevel.level();
+    if (pvs) {
+      PotentiallyVisibleSet.build(level, MAX_VISIBILITY);
+    }
+    positions = Positions.grid(level, GRID_STEP);
+  }
+
+  private Point nextPosition() {
+    Point position = positions.get(next);
+    next = (next + 1) % positions.size();
+    return position;
+  }
+
+  @Benchmark
+  public RayTrace rayTrace() {
+    return RayTrace.buildRadialTrace(level, nextPosition(), MAX_VISIBILITY);
+  }
+
+  @Benchmark
+  public TraceKernel.PackedTrace traceKernel() {
+    return TraceKernel.forCurrentThread().trace(level, nextPosition(), MAX_VISIBILITY);
+  }
+}